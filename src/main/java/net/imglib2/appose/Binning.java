@@ -0,0 +1,359 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Parallel binning (downsampling by averaging) and nearest-neighbor
+ * upsampling into new {@link ShmImg}s, for example to send low-resolution
+ * previews of large images to a worker.
+ * <p>
+ * If the source is a {@code ShmImg}, its buffer is read directly with
+ * primitive-specialized code. Otherwise, the source is read through {@code
+ * RandomAccess}. In both cases, the work is proportional to the size of the
+ * image that is read, and is split over output lines in parallel.
+ */
+public class Binning
+{
+	/**
+	 * Bin {@code source} by the given per-dimension {@code factors} into a new
+	 * {@code ShmImg}. Each output pixel is the average of a box of {@code
+	 * factors} input pixels. Dimensions that are not divisible by the factor
+	 * produce a last output pixel averaging the remaining input pixels. For
+	 * integer types, averages are rounded.
+	 *
+	 * @param source
+	 * 		image to bin
+	 * @param factors
+	 * 		binning factor for each dimension
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return a new {@code ShmImg} with dimensions {@code ceil(dimension /
+	 * factor)}
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if the number of factors does not match the number of dimensions, if
+	 * 		a factor is not positive, or if the type is not supported.
+	 */
+	public static < T extends RealType< T > & NativeType< T > > ShmImg< T > bin( final RandomAccessibleInterval< T > source, final int... factors )
+	{
+		final int n = source.numDimensions();
+		checkFactors( n, factors );
+		final int[] inDims = Util.long2int( source.dimensionsAsLongArray() );
+		final int[] outDims = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+			outDims[ d ] = ( inDims[ d ] + factors[ d ] - 1 ) / factors[ d ];
+
+		final ShmImg< T > target = new ShmImg<>( source.getType().createVariable(), outDims );
+		final FlatAccess out = FlatAccess.of( target.ndArray() );
+		final FlatAccess in = source instanceof ShmImg ? FlatAccess.of( ( ( ShmImg< T > ) source ).ndArray() ) : null;
+		final int[] inStrides = strides( inDims );
+		final RandomAccessibleInterval< T > zeroMin = Views.zeroMin( source );
+
+		final int inWidth = inDims[ 0 ];
+		final int outWidth = outDims[ 0 ];
+		final int f0 = factors[ 0 ];
+		Chunks.forEach( numLines( outDims ), 1, ( from, to ) -> {
+			final RowReader reader = in != null
+					? flatReader( in, inStrides, inWidth, f0 )
+					: genericReader( zeroMin.randomAccess(), inWidth, f0 );
+			final int[] outPos = new int[ n ];
+			final int[] lo = new int[ n ];
+			final int[] hi = new int[ n ];
+			final int[] pos = new int[ n ];
+			final double[] sums = new double[ outWidth ];
+			for ( int line = from; line < to; ++line )
+			{
+				linePosition( line, outDims, outPos );
+				for ( int d = 1; d < n; ++d )
+				{
+					lo[ d ] = outPos[ d ] * factors[ d ];
+					hi[ d ] = Math.min( inDims[ d ], lo[ d ] + factors[ d ] );
+					pos[ d ] = lo[ d ];
+				}
+
+				Arrays.fill( sums, 0 );
+				int numRows = 0;
+				while ( true )
+				{
+					reader.addRow( pos, sums );
+					++numRows;
+					int d = 1;
+					for ( ; d < n; ++d )
+					{
+						if ( ++pos[ d ] < hi[ d ] )
+							break;
+						pos[ d ] = lo[ d ];
+					}
+					if ( d >= n )
+						break;
+				}
+
+				final int offset = line * outWidth;
+				for ( int x = 0; x < outWidth; ++x )
+				{
+					final int count = numRows * Math.min( f0, inWidth - x * f0 );
+					out.set( offset + x, sums[ x ] / count );
+				}
+			}
+		} );
+		return target;
+	}
+
+	/**
+	 * Upsample {@code source} by the given per-dimension {@code factors} into
+	 * a new {@code ShmImg}, using nearest-neighbor interpolation.
+	 *
+	 * @param source
+	 * 		image to upsample
+	 * @param factors
+	 * 		upsampling factor for each dimension
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return a new {@code ShmImg} with dimensions {@code dimension * factor}
+	 */
+	public static < T extends NativeType< T > > ShmImg< T > upsample( final RandomAccessibleInterval< T > source, final int... factors )
+	{
+		final int n = source.numDimensions();
+		checkFactors( n, factors );
+		final int[] dimensions = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+			dimensions[ d ] = Math.multiplyExact( ( int ) source.dimension( d ), factors[ d ] );
+		return upsample( source, factors, dimensions );
+	}
+
+	/**
+	 * Upsample {@code source} by the given per-dimension {@code factors} into
+	 * a new {@code ShmImg} of the given {@code dimensions}, using
+	 * nearest-neighbor interpolation. Output pixels beyond {@code dimension *
+	 * factor} repeat the last source pixel.
+	 * <p>
+	 * This is the inverse of {@link #bin(RandomAccessibleInterval, int...)}
+	 * when {@code dimensions} are the dimensions of the binned image.
+	 *
+	 * @param source
+	 * 		image to upsample
+	 * @param factors
+	 * 		upsampling factor for each dimension
+	 * @param dimensions
+	 * 		dimensions of the output image
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return a new {@code ShmImg} with the given {@code dimensions}
+	 */
+	public static < T extends NativeType< T > > ShmImg< T > upsample( final RandomAccessibleInterval< T > source, final int[] factors, final int... dimensions )
+	{
+		final int n = source.numDimensions();
+		checkFactors( n, factors );
+		if ( dimensions.length != n )
+			throw new IllegalArgumentException( "expected " + n + " dimensions" );
+		final int[] inDims = Util.long2int( source.dimensionsAsLongArray() );
+		final int[] outDims = dimensions.clone();
+		final ShmImg< T > target = new ShmImg<>( source.getType().createVariable(), outDims );
+		if ( Intervals.numElements( source ) == 0 || Intervals.numElements( target ) == 0 )
+			return target;
+
+		final int[] inStrides = strides( inDims );
+		final int inWidth = inDims[ 0 ];
+		final int outWidth = outDims[ 0 ];
+		final int f0 = factors[ 0 ];
+		if ( source instanceof ShmImg )
+		{
+			final ByteBuffer in = ( ( ShmImg< T > ) source ).ndArray().buffer();
+			final ByteBuffer out = target.ndArray().buffer();
+			final int bytesPerElement = ( int ) ( in.remaining() / Intervals.numElements( source ) );
+			Chunks.forEach( numLines( outDims ), 1, ( from, to ) -> {
+				final ByteBuffer inLine = in.duplicate();
+				final ByteBuffer outLine = out.duplicate();
+				final byte[] inRow = new byte[ inWidth * bytesPerElement ];
+				final byte[] outRow = new byte[ outWidth * bytesPerElement ];
+				final int[] outPos = new int[ n ];
+				int rowOffset = -1;
+				for ( int line = from; line < to; ++line )
+				{
+					linePosition( line, outDims, outPos );
+					int inOffset = 0;
+					for ( int d = 1; d < n; ++d )
+						inOffset += Math.min( outPos[ d ] / factors[ d ], inDims[ d ] - 1 ) * inStrides[ d ];
+					// consecutive output lines often repeat the same input line
+					if ( inOffset != rowOffset )
+					{
+						inLine.position( inOffset * bytesPerElement );
+						inLine.get( inRow );
+						replicate( inRow, outRow, bytesPerElement, f0 );
+						rowOffset = inOffset;
+					}
+					outLine.position( ( int ) ( ( long ) line * outWidth * bytesPerElement ) );
+					outLine.put( outRow );
+				}
+			} );
+		}
+		else
+		{
+			final RandomAccessibleInterval< T > zeroMin = Views.zeroMin( source );
+			Chunks.forEach( numLines( outDims ), 1, ( from, to ) -> {
+				final RandomAccess< T > in = zeroMin.randomAccess();
+				final RandomAccess< T > out = target.randomAccess();
+				final int[] outPos = new int[ n ];
+				for ( int line = from; line < to; ++line )
+				{
+					linePosition( line, outDims, outPos );
+					for ( int d = 1; d < n; ++d )
+						in.setPosition( Math.min( outPos[ d ] / factors[ d ], inDims[ d ] - 1 ), d );
+					out.setPosition( outPos );
+					for ( int x = 0; x < outWidth; ++x )
+					{
+						in.setPosition( Math.min( x / f0, inWidth - 1 ), 0 );
+						out.setPosition( x, 0 );
+						out.get().set( in.get() );
+					}
+				}
+			} );
+		}
+		return target;
+	}
+
+	/**
+	 * Fill {@code outRow} by repeating each element of {@code inRow} {@code
+	 * f0} times. Elements beyond {@code inWidth * f0} repeat the last element
+	 * of {@code inRow}. Each run is filled by doubling {@code arraycopy}s.
+	 */
+	private static void replicate( final byte[] inRow, final byte[] outRow, final int bytesPerElement, final int f0 )
+	{
+		final int inWidth = inRow.length / bytesPerElement;
+		final int runLength = f0 * bytesPerElement;
+		for ( int x = 0; x < inWidth; ++x )
+		{
+			final int start = x * runLength;
+			if ( start >= outRow.length )
+				break;
+			final int end = x == inWidth - 1 ? outRow.length : Math.min( outRow.length, start + runLength );
+			System.arraycopy( inRow, x * bytesPerElement, outRow, start, bytesPerElement );
+			for ( int filled = bytesPerElement; start + filled < end; filled *= 2 )
+				System.arraycopy( outRow, start, outRow, start + filled, Math.min( filled, end - start - filled ) );
+		}
+	}
+
+	/**
+	 * Adds an input row into per-bin sums.
+	 */
+	private interface RowReader
+	{
+		/**
+		 * Add the input row at {@code pos} (dimensions {@code 1..n-1}) into
+		 * {@code sums[x / f0]}.
+		 */
+		void addRow( int[] pos, double[] sums );
+	}
+
+	private static RowReader flatReader( final FlatAccess in, final int[] strides, final int width, final int f0 )
+	{
+		return ( pos, sums ) -> {
+			int offset = 0;
+			for ( int d = 1; d < pos.length; ++d )
+				offset += pos[ d ] * strides[ d ];
+			for ( int x = 0; x < width; ++x )
+				sums[ x / f0 ] += in.get( offset + x );
+		};
+	}
+
+	private static < T extends RealType< T > > RowReader genericReader( final RandomAccess< T > in, final int width, final int f0 )
+	{
+		return ( pos, sums ) -> {
+			pos[ 0 ] = 0;
+			in.setPosition( pos );
+			for ( int x = 0; x < width; ++x )
+			{
+				sums[ x / f0 ] += in.get().getRealDouble();
+				in.fwd( 0 );
+			}
+		};
+	}
+
+	private static void checkFactors( final int n, final int[] factors )
+	{
+		if ( factors.length != n )
+			throw new IllegalArgumentException( "expected " + n + " factors" );
+		for ( final int f : factors )
+			if ( f < 1 )
+				throw new IllegalArgumentException( "factors must be positive" );
+	}
+
+	private static int[] strides( final int[] dimensions )
+	{
+		final int[] strides = new int[ dimensions.length ];
+		int stride = 1;
+		for ( int d = 0; d < dimensions.length; ++d )
+		{
+			strides[ d ] = stride;
+			stride *= dimensions[ d ];
+		}
+		return strides;
+	}
+
+	/**
+	 * Number of lines (along dimension 0) in an image of the given dimensions.
+	 */
+	private static int numLines( final int[] dimensions )
+	{
+		if ( dimensions.length == 0 || dimensions[ 0 ] == 0 )
+			return 0;
+		int numLines = 1;
+		for ( int d = 1; d < dimensions.length; ++d )
+			numLines *= dimensions[ d ];
+		return numLines;
+	}
+
+	/**
+	 * Set {@code position} to the start of the given {@code line}.
+	 */
+	private static void linePosition( final int line, final int[] dimensions, final int[] position )
+	{
+		int i = line;
+		position[ 0 ] = 0;
+		for ( int d = 1; d < dimensions.length; ++d )
+		{
+			position[ d ] = i % dimensions[ d ];
+			i /= dimensions[ d ];
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.parallel.Parallelization;
+import net.imglib2.parallel.TaskExecutor;
+
+/**
+ * Splits an index range into chunks that are processed in parallel.
+ */
+final class Chunks
+{
+	interface Range
+	{
+		void run( int from, int to );
+	}
+
+	/**
+	 * Split {@code [0, size)} into chunks of at least {@code minChunkSize}
+	 * (except the last one), and run {@code range} on each chunk, in parallel
+	 * using the current {@link Parallelization} {@code TaskExecutor}.
+	 */
+	static void forEach( final int size, final int minChunkSize, final Range range )
+	{
+		if ( size <= 0 )
+			return;
+		final TaskExecutor executor = Parallelization.getTaskExecutor();
+		executor.forEach( ranges( size, minChunkSize, executor.suggestNumberOfTasks() ), r -> range.run( r[ 0 ], r[ 1 ] ) );
+	}
+
+	/**
+	 * Split {@code [0, size)} into at most {@code 4 * numTasks} chunks of at
+	 * least {@code minChunkSize} (except the last one).
+	 *
+	 * @return list of {@code {from, to}} pairs
+	 */
+	static List< int[] > ranges( final int size, final int minChunkSize, final int numTasks )
+	{
+		final int numChunks = Math.max( 1, Math.min( 4 * numTasks, size / Math.max( 1, minChunkSize ) ) );
+		final int chunkSize = ( int ) ( ( ( long ) size + numChunks - 1 ) / numChunks );
+		final List< int[] > ranges = new ArrayList<>( numChunks );
+		// long arithmetic: from + chunkSize may exceed Integer.MAX_VALUE
+		for ( long from = 0; from < size; from += chunkSize )
+			ranges.add( new int[] { ( int ) from, ( int ) Math.min( size, from + chunkSize ) } );
+		return ranges;
+	}
+
+	private Chunks()
+	{}
+}
@@ -0,0 +1,526 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+import org.apposed.appose.NDArray;
+import org.apposed.appose.NDArray.DType;
+
+/**
+ * Access to the elements of an {@link NDArray} buffer by flat index,
+ * converting to and from {@code double}.
+ * <p>
+ * There is one implementation per real {@link DType}. Values written to
+ * integer types are rounded and clamped to the range of the type. Values
+ * written to {@code BOOL} are rounded, and {@code true} if non-zero.
+ * <p>
+ * The bulk {@code get} and {@code set} methods are implemented in each
+ * (final) subclass, so that every loop calls a single, statically bound
+ * element accessor that the JIT can inline. Bulk access costs one virtual
+ * call per block instead of one per element.
+ */
+abstract class FlatAccess
+{
+	abstract double get( int index );
+
+	abstract void set( int index, double value );
+
+	/**
+	 * Read the {@code n} elements starting at flat index {@code from} into
+	 * {@code values}.
+	 */
+	abstract void get( int from, double[] values, int n );
+
+	/**
+	 * Write the first {@code n} elements of {@code values} to the elements
+	 * starting at flat index {@code from}.
+	 */
+	abstract void set( int from, double[] values, int n );
+
+	static FlatAccess of( final NDArray ndArray )
+	{
+		return of( ndArray.buffer(), ndArray.dType() );
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 * 		if {@code dType} is not a real type
+	 */
+	static FlatAccess of( final ByteBuffer buffer, final DType dType )
+	{
+		final ByteBuffer bytes = buffer.duplicate().order( ByteOrder.nativeOrder() );
+		switch ( dType )
+		{
+		case INT8:
+			return new Int8( bytes );
+		case UINT8:
+			return new UInt8( bytes );
+		case INT16:
+			return new Int16( bytes.asShortBuffer() );
+		case UINT16:
+			return new UInt16( bytes.asShortBuffer() );
+		case INT32:
+			return new Int32( bytes.asIntBuffer() );
+		case UINT32:
+			return new UInt32( bytes.asIntBuffer() );
+		case INT64:
+			return new Int64( bytes.asLongBuffer() );
+		case UINT64:
+			return new UInt64( bytes.asLongBuffer() );
+		case FLOAT32:
+			return new Float32( bytes.asFloatBuffer() );
+		case FLOAT64:
+			return new Float64( bytes.asDoubleBuffer() );
+		case BOOL:
+			return new Bool( bytes );
+		default:
+			throw new IllegalArgumentException( "Unsupported dtype: " + dType );
+		}
+	}
+
+	private static long clamp( final double value, final long min, final long max )
+	{
+		final long v = Math.round( value );
+		return v < min ? min : v > max ? max : v;
+	}
+
+	private static final class Int8 extends FlatAccess
+	{
+		private final ByteBuffer buffer;
+
+		Int8( final ByteBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			buffer.put( index, ( byte ) clamp( value, Byte.MIN_VALUE, Byte.MAX_VALUE ) );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+
+	private static final class UInt8 extends FlatAccess
+	{
+		private final ByteBuffer buffer;
+
+		UInt8( final ByteBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			return buffer.get( index ) & 0xff;
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			buffer.put( index, ( byte ) clamp( value, 0, 0xff ) );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+
+	private static final class Int16 extends FlatAccess
+	{
+		private final ShortBuffer buffer;
+
+		Int16( final ShortBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			buffer.put( index, ( short ) clamp( value, Short.MIN_VALUE, Short.MAX_VALUE ) );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+
+	private static final class UInt16 extends FlatAccess
+	{
+		private final ShortBuffer buffer;
+
+		UInt16( final ShortBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			return buffer.get( index ) & 0xffff;
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			buffer.put( index, ( short ) clamp( value, 0, 0xffff ) );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+
+	private static final class Int32 extends FlatAccess
+	{
+		private final IntBuffer buffer;
+
+		Int32( final IntBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			buffer.put( index, ( int ) clamp( value, Integer.MIN_VALUE, Integer.MAX_VALUE ) );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+
+	private static final class UInt32 extends FlatAccess
+	{
+		private final IntBuffer buffer;
+
+		UInt32( final IntBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			return buffer.get( index ) & 0xffffffffL;
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			buffer.put( index, ( int ) clamp( value, 0, 0xffffffffL ) );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+
+	private static final class Int64 extends FlatAccess
+	{
+		private final LongBuffer buffer;
+
+		Int64( final LongBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			buffer.put( index, Math.round( value ) );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+
+	private static final class UInt64 extends FlatAccess
+	{
+		private static final double TWO_POW_63 = 0x1p63;
+
+		private final LongBuffer buffer;
+
+		UInt64( final LongBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			final long v = buffer.get( index );
+			return v >= 0 ? v : ( v & Long.MAX_VALUE ) + TWO_POW_63;
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			final double v = Math.rint( value );
+			if ( !( v > 0 ) )
+				buffer.put( index, 0 );
+			else if ( v < TWO_POW_63 )
+				buffer.put( index, ( long ) v );
+			else if ( v < 2 * TWO_POW_63 )
+				buffer.put( index, ( long ) ( v - TWO_POW_63 ) | Long.MIN_VALUE );
+			else
+				buffer.put( index, -1L );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+
+	private static final class Float32 extends FlatAccess
+	{
+		private final FloatBuffer buffer;
+
+		Float32( final FloatBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			buffer.put( index, ( float ) value );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+
+	private static final class Float64 extends FlatAccess
+	{
+		private final DoubleBuffer buffer;
+
+		Float64( final DoubleBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			buffer.put( index, value );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+
+	private static final class Bool extends FlatAccess
+	{
+		private final ByteBuffer buffer;
+
+		Bool( final ByteBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		double get( final int index )
+		{
+			return buffer.get( index ) != 0 ? 1 : 0;
+		}
+
+		@Override
+		void set( final int index, final double value )
+		{
+			buffer.put( index, Math.round( value ) != 0 ? ( byte ) 1 : ( byte ) 0 );
+		}
+
+		@Override
+		void get( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = get( from + i );
+		}
+
+		@Override
+		void set( final int from, final double[] values, final int n )
+		{
+			for ( int i = 0; i < n; ++i )
+				set( from + i, values[ i ] );
+		}
+	}
+}
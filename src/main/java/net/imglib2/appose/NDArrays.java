@@ -30,19 +30,37 @@ package net.imglib2.appose;
 
 import static org.apposed.appose.NDArray.Shape.Order.F_ORDER;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import org.apposed.appose.NDArray;
 import org.apposed.appose.NDArray.DType;
 
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.basictypeaccess.nio.BufferAccess;
 import net.imglib2.img.basictypeaccess.nio.BufferDataAccessFactory;
+import net.imglib2.parallel.Parallelization;
+import net.imglib2.transform.integer.MixedTransform;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.NativeTypeFactory;
 import net.imglib2.util.Cast;
 import net.imglib2.util.Fraction;
+import net.imglib2.util.ImgUtil;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.MixedTransformView;
 
 public class NDArrays
 {
@@ -68,6 +86,172 @@ public class NDArrays
 		return new NDArray( DTypes.dtype( type ), new NDArray.Shape( F_ORDER, dimensions ) );
 	}
 
+	/**
+	 * Allocate an Appose {@link NDArray} holding a batch of {@code n} images
+	 * with the given {@code type} and {@code dimensions}.
+	 * <p>
+	 * The batch axis is appended as the last ImgLib2 dimension. (On the
+	 * Python side, this is the leading axis, that is, the {@code ndarray} has
+	 * shape {@code (n, ...)}.) Each batch slot is a contiguous block of the
+	 * {@code NDArray} buffer, see {@link #slot(NDArray, int)}.
+	 *
+	 * @param type
+	 * 		ImgLib2 type of {@code NDArray} elements
+	 * @param n
+	 * 		number of images in the batch
+	 * @param dimensions
+	 * 		dimensions of each image (in F-order, as used by ImgLib2)
+	 * @param <T>
+	 * 		element type
+	 *
+	 * @return a new {@code NDArray}
+	 */
+	public static < T extends NativeType< T > > NDArray batchNDArray( final T type, final int n, final int... dimensions )
+	{
+		final int[] batchDimensions = Arrays.copyOf( dimensions, dimensions.length + 1 );
+		batchDimensions[ dimensions.length ] = n;
+		return ndArray( type, batchDimensions );
+	}
+
+	/**
+	 * Copy the given images into slots of a new batch {@link NDArray} (see
+	 * {@link #batchNDArray(NativeType, int, int...)}). The images are copied
+	 * in parallel.
+	 *
+	 * @param rais
+	 * 		images to copy. All images must have the same dimensions.
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return a new batch {@code NDArray}
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code rais} is empty or the images have different dimensions
+	 */
+	public static < T extends NativeType< T > > NDArray stack( final List< ? extends RandomAccessibleInterval< T > > rais )
+	{
+		if ( rais.isEmpty() )
+			throw new IllegalArgumentException( "Cannot stack an empty list of images" );
+		final RandomAccessibleInterval< T > first = rais.get( 0 );
+		for ( final RandomAccessibleInterval< T > rai : rais )
+			if ( !Intervals.equalDimensions( first, rai ) )
+				throw new IllegalArgumentException( "All images must have the same dimensions" );
+
+		final T type = first.getType();
+		final NDArray batch = batchNDArray( type, rais.size(), Util.long2int( first.dimensionsAsLongArray() ) );
+		final List< ArrayImg< T, ? > > slots = unstack( batch, type );
+		final List< Integer > indices = new ArrayList<>();
+		for ( int i = 0; i < rais.size(); ++i )
+			indices.add( i );
+		Parallelization.getTaskExecutor().forEach( indices, i -> ImgUtil.copy( rais.get( i ), slots.get( i ) ) );
+		return batch;
+	}
+
+	/**
+	 * Wrap slot {@code index} of a batch {@link NDArray} as an {@code
+	 * ArrayImg} with matching type. The batch axis is the last ImgLib2
+	 * dimension of {@code batch}.
+	 * <p>
+	 * The returned {@code ArrayImg} is a view on the {@code batch} buffer, so
+	 * writing to it writes into {@code batch}. No data is copied.
+	 *
+	 * @param batch
+	 * 		the batch {@code NDArray}
+	 * @param index
+	 * 		slot index
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return ArrayImg wrapping slot {@code index} of {@code batch}
+	 */
+	public static < T extends NativeType< T > > ArrayImg< T, ? > slot( final NDArray batch, final int index )
+	{
+		return slot( batch, Cast.unchecked( DTypes.type( batch.dType() ).get() ), index );
+	}
+
+	/**
+	 * Wrap slot {@code index} of a batch {@link NDArray} as an {@code
+	 * ArrayImg<T>}. The batch axis is the last ImgLib2 dimension of {@code
+	 * batch}.
+	 * <p>
+	 * The returned {@code ArrayImg} is a view on the {@code batch} buffer, so
+	 * writing to it writes into {@code batch}. No data is copied.
+	 *
+	 * @param batch
+	 * 		the batch {@code NDArray}
+	 * @param type
+	 * 		instance of the pixel type
+	 * @param index
+	 * 		slot index
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return ArrayImg wrapping slot {@code index} of {@code batch}
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if type doesnt match batch type
+	 * @throws IndexOutOfBoundsException
+	 * 		if {@code index} is not a valid slot index
+	 */
+	public static < T extends NativeType< T > > ArrayImg< T, ? > slot( final NDArray batch, final T type, final int index )
+	{
+		checkType( batch.dType(), type );
+		final long[] batchDimensions = batch.shape().toLongArray( F_ORDER );
+		final int n = batchDimensions.length - 1;
+		final long numSlots = batchDimensions[ n ];
+		if ( index < 0 || index >= numSlots )
+			throw new IndexOutOfBoundsException( "Slot index " + index + " out of bounds for batch of size " + numSlots );
+
+		final ByteBuffer buffer = batch.buffer();
+		final int bytesPerSlot = ( int ) ( buffer.remaining() / numSlots );
+		final ByteBuffer slice = buffer.duplicate();
+		slice.position( buffer.position() + index * bytesPerSlot );
+		slice.limit( slice.position() + bytesPerSlot );
+		return ShmAccesses.asArrayImg(
+				slice.slice().order( ByteOrder.nativeOrder() ),
+				Arrays.copyOf( batchDimensions, n ),
+				type );
+	}
+
+	/**
+	 * Wrap all slots of a batch {@link NDArray} as {@code ArrayImg}s with
+	 * matching type (see {@link #slot(NDArray, int)}). No data is copied.
+	 *
+	 * @param batch
+	 * 		the batch {@code NDArray}
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return list of ArrayImgs wrapping the slots of {@code batch}
+	 */
+	public static < T extends NativeType< T > > List< ArrayImg< T, ? > > unstack( final NDArray batch )
+	{
+		return unstack( batch, Cast.unchecked( DTypes.type( batch.dType() ).get() ) );
+	}
+
+	/**
+	 * Wrap all slots of a batch {@link NDArray} as {@code ArrayImg<T>}s (see
+	 * {@link #slot(NDArray, NativeType, int)}). No data is copied.
+	 *
+	 * @param batch
+	 * 		the batch {@code NDArray}
+	 * @param type
+	 * 		instance of the pixel type
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return list of ArrayImgs wrapping the slots of {@code batch}
+	 */
+	public static < T extends NativeType< T > > List< ArrayImg< T, ? > > unstack( final NDArray batch, final T type )
+	{
+		final long[] batchDimensions = batch.shape().toLongArray( F_ORDER );
+		final int numSlots = ( int ) batchDimensions[ batchDimensions.length - 1 ];
+		final List< ArrayImg< T, ? > > slots = new ArrayList<>( numSlots );
+		for ( int i = 0; i < numSlots; ++i )
+			slots.add( slot( batch, type, i ) );
+		return slots;
+	}
+
 	/**
 	 * Wrap an Appose {@link NDArray} as an {@code ArrayImg} with matching type.
 	 *
@@ -105,22 +289,103 @@ public class NDArrays
 			final NDArray ndArray,
 			final T type )
 	{
-		if ( !Objects.equals(
-				type.getNativeTypeFactory().getPrimitiveType(),
-				DTypes.primitiveType( ndArray.dType() ) ) )
-			throw new IllegalArgumentException();
+		checkType( ndArray.dType(), type );
+		return asArrayImg( ndArray.buffer(), ndArray.shape().toLongArray( F_ORDER ), type );
+	}
 
-		final long[] dimensions = ndArray.shape().toLongArray( F_ORDER );
+	/**
+	 * Wrap a {@code ByteBuffer} as an {@code ArrayImg<T>} of the given
+	 * dimensions, using NIO {@code BufferAccess}.
+	 */
+	static < T extends NativeType< T >, A extends BufferAccess< A > > ArrayImg< T, A > asArrayImg(
+			final ByteBuffer buffer,
+			final long[] dimensions,
+			final T type )
+	{
 		final Fraction entitiesPerPixel = type.getEntitiesPerPixel();
 		@SuppressWarnings( { "unchecked", "rawtypes" } )
 		final NativeTypeFactory< T, ? super A > typeFactory = ( NativeTypeFactory ) type.getNativeTypeFactory();
 		final A access = BufferDataAccessFactory.get( typeFactory );
-		final A data = access.newInstance( ndArray.buffer(), true );
+		final A data = access.newInstance( buffer, true );
 		final ArrayImg< T, A > img = new ArrayImg<>( data, dimensions, entitiesPerPixel );
 		img.setLinkedType( typeFactory.createLinkedType( img ) );
 		return img;
 	}
 
+	/**
+	 * Copy the remaining bytes of {@code source} into {@code target}, in
+	 * parallel chunks of at least {@link #COPY_CHUNK_SIZE} bytes. The
+	 * positions of {@code source} and {@code target} are not modified.
+	 */
+	static void copy( final ByteBuffer source, final ByteBuffer target )
+	{
+		final int size = source.remaining();
+		if ( target.remaining() < size )
+			throw new IllegalArgumentException( "target buffer is too small" );
+		Chunks.forEach( size, COPY_CHUNK_SIZE, ( from, to ) -> {
+			final ByteBuffer src = source.duplicate();
+			src.position( source.position() + from );
+			src.limit( source.position() + to );
+			final ByteBuffer dst = target.duplicate();
+			dst.position( target.position() + from );
+			dst.put( src );
+		} );
+	}
+
+	static final int COPY_CHUNK_SIZE = 1 << 22;
+
+	/**
+	 * Check that the {@code PrimitiveType} underlying {@code type} fits the
+	 * given {@code dType}.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if type doesnt match dType
+	 */
+	static void checkType( final DType dType, final NativeType< ? > type )
+	{
+		if ( !Objects.equals(
+				type.getNativeTypeFactory().getPrimitiveType(),
+				DTypes.primitiveType( dType ) ) )
+			throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Bind a Java-owned {@code output} image into task {@code inputs}, so that
+	 * the worker can write its result into it in place.
+	 * <p>
+	 * The {@link WrappedNDArray#ndArray() NDArray} of {@code output} is put
+	 * into {@code inputs} under the given {@code name}. By convention, the
+	 * worker writes into it without allocating a new array, for example
+	 * {@code np.add(a.ndarray(), b.ndarray(), out=output.ndarray())} or
+	 * {@code output.ndarray()[:] = result}, and does not return it in the
+	 * task outputs. After the task completes, the result is in {@code output}.
+	 * <p>
+	 * Use {@link ShmImgFactory#reuse(ShmImg, long...)} to allocate {@code
+	 * output} once and reuse it across tasks.
+	 *
+	 * @param inputs
+	 * 		task inputs
+	 * @param name
+	 * 		name of the output in {@code inputs}
+	 * @param output
+	 * 		image that the worker should write to
+	 * @param <W>
+	 * 		output image type
+	 *
+	 * @return {@code output}
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code output} is a {@link ShmImg#isReadOnly() read-only} {@code
+	 * 		ShmImg}
+	 */
+	public static < W extends WrappedNDArray > W bindOutput( final Map< String, Object > inputs, final String name, final W output )
+	{
+		if ( output instanceof ShmImg && ( ( ShmImg< ? > ) output ).isReadOnly() )
+			throw new IllegalArgumentException( "cannot bind read-only ShmImg as output" );
+		inputs.put( name, output.ndArray() );
+		return output;
+	}
+
 	/**
 	 * Returns a {@code RandomAccessibleInterval} as an Appose {@code NDArray}.
 	 * <p>
@@ -182,4 +447,187 @@ public class NDArrays
 	{
 		return asNDArray( rai, true );
 	}
+
+	/**
+	 * Prepare images for Appose task inputs. Each image is converted to an
+	 * {@code NDArray} like {@link #asNDArray(RandomAccessibleInterval)}, but
+	 * <ul>
+	 * <li>images that are referenced under multiple names are converted only
+	 * once,</li>
+	 * <li>views that cover a whole {@link WrappedNDArray} image (such as a
+	 * {@link ShmImg} viewed through {@code Views.interval} or {@code
+	 * Views.translate}) resolve to its {@code NDArray} without copying,</li>
+	 * <li>identical {@code Views.interval} crops of the same source are copied
+	 * only once, and</li>
+	 * <li>the remaining copies are made in parallel.</li>
+	 * </ul>
+	 * The returned {@link Inputs} holds the inputs map, and closes the
+	 * temporary {@code NDArray} copies when it is closed.
+	 *
+	 * @param images
+	 * 		images by input name
+	 *
+	 * @return prepared task inputs
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if an image does not have a {@code NativeType}
+	 */
+	public static Inputs asNDArrays( final Map< String, ? extends RandomAccessibleInterval< ? > > images )
+	{
+		final Map< RandomAccessibleInterval< ? >, NDArray > resolved = new IdentityHashMap<>();
+		final Map< Object, RandomAccessibleInterval< ? > > copyKeys = new HashMap<>();
+		final Map< RandomAccessibleInterval< ? >, RandomAccessibleInterval< ? > > copySources = new IdentityHashMap<>();
+		for ( final RandomAccessibleInterval< ? > rai : images.values() )
+		{
+			if ( resolved.containsKey( rai ) || copySources.containsKey( rai ) )
+				continue;
+			if ( !( rai.getType() instanceof NativeType ) )
+				throw new IllegalArgumentException( "The provided RandomAccessibleInterval does not have a NativeType" );
+			final NDArray ndArray = sharedNDArray( rai, rai );
+			if ( ndArray != null )
+				resolved.put( rai, ndArray );
+			else
+			{
+				final RandomAccessibleInterval< ? > key = copyKeys.computeIfAbsent( copyKey( rai ), k -> rai );
+				copySources.put( rai, key );
+			}
+		}
+
+		final List< RandomAccessibleInterval< ? > > toCopy = new ArrayList<>( copyKeys.values() );
+		final List< NDArray > copies = new ArrayList<>( toCopy.size() );
+		for ( int i = 0; i < toCopy.size(); ++i )
+			copies.add( null );
+		final List< Integer > indices = new ArrayList<>();
+		for ( int i = 0; i < toCopy.size(); ++i )
+			indices.add( i );
+		try
+		{
+			Parallelization.getTaskExecutor().forEach( indices, i -> copies.set( i, copyToNDArray( toCopy.get( i ) ) ) );
+		}
+		catch ( final RuntimeException e )
+		{
+			for ( final NDArray copy : copies )
+				if ( copy != null )
+					copy.close();
+			throw e;
+		}
+		final Map< RandomAccessibleInterval< ? >, NDArray > copied = new IdentityHashMap<>();
+		for ( int i = 0; i < toCopy.size(); ++i )
+			copied.put( toCopy.get( i ), copies.get( i ) );
+
+		final Map< String, Object > inputs = new LinkedHashMap<>();
+		images.forEach( ( name, rai ) -> {
+			final NDArray ndArray = resolved.get( rai );
+			inputs.put( name, ndArray != null ? ndArray : copied.get( copySources.get( rai ) ) );
+		} );
+		return new Inputs( inputs, copies );
+	}
+
+	/**
+	 * Task inputs prepared by {@link #asNDArrays(Map)}, together with the
+	 * temporary {@code NDArray} copies made for them.
+	 */
+	public static class Inputs implements AutoCloseable
+	{
+		private final Map< String, Object > inputs;
+
+		private final List< NDArray > temporaries;
+
+		private Inputs( final Map< String, Object > inputs, final List< NDArray > temporaries )
+		{
+			this.inputs = inputs;
+			this.temporaries = temporaries;
+		}
+
+		/**
+		 * Get the inputs map. Further (non-image) inputs may be added to it
+		 * before passing it to the task.
+		 */
+		public Map< String, Object > inputs()
+		{
+			return inputs;
+		}
+
+		/**
+		 * Close the temporary {@code NDArray} copies. (Wrapped {@code
+		 * NDArray}s that were passed without copying are not closed.)
+		 */
+		@Override
+		public void close()
+		{
+			for ( final NDArray ndArray : temporaries )
+				ndArray.close();
+		}
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private static NDArray copyToNDArray( final RandomAccessibleInterval< ? > rai )
+	{
+		return ShmImg.copyOf( ( RandomAccessibleInterval ) rai ).ndArray();
+	}
+
+	/**
+	 * Returns the {@code NDArray} holding exactly the data of {@code ra}
+	 * restricted to {@code interval}, or {@code null} if there is no such
+	 * {@code NDArray}.
+	 */
+	private static NDArray sharedNDArray( final RandomAccessible< ? > ra, final Interval interval )
+	{
+		if ( ra instanceof WrappedNDArray && ra instanceof Interval )
+			return Intervals.equals( ( Interval ) ra, interval ) ? ( ( WrappedNDArray ) ra ).ndArray() : null;
+		if ( ra instanceof IntervalView )
+			return sharedNDArray( ( ( IntervalView< ? > ) ra ).getSource(), interval );
+		if ( ra instanceof MixedTransformView )
+		{
+			final MixedTransformView< ? > view = ( MixedTransformView< ? > ) ra;
+			final MixedTransform t = view.getTransformToSource();
+			final int n = t.numTargetDimensions();
+			if ( t.numSourceDimensions() != n )
+				return null;
+			for ( int d = 0; d < n; ++d )
+				if ( t.getComponentZero( d ) || t.getComponentMapping( d ) != d || t.getComponentInversion( d ) )
+					return null;
+			final long[] translation = new long[ n ];
+			t.getTranslation( translation );
+			return sharedNDArray( view.getSource(), Intervals.translate( interval, translation ) );
+		}
+		return null;
+	}
+
+	/**
+	 * Key under which copies of {@code rai} are deduplicated: {@code
+	 * Views.interval} crops with the same source and interval share a key,
+	 * other images are keyed by identity.
+	 */
+	private static Object copyKey( final RandomAccessibleInterval< ? > rai )
+	{
+		if ( rai instanceof IntervalView )
+			return Arrays.asList(
+					new IdentityKey( ( ( IntervalView< ? > ) rai ).getSource() ),
+					Arrays.toString( rai.minAsLongArray() ),
+					Arrays.toString( rai.maxAsLongArray() ) );
+		return new IdentityKey( rai );
+	}
+
+	private static final class IdentityKey
+	{
+		private final Object object;
+
+		IdentityKey( final Object object )
+		{
+			this.object = object;
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			return o instanceof IdentityKey && ( ( IdentityKey ) o ).object == object;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return System.identityHashCode( object );
+		}
+	}
 }
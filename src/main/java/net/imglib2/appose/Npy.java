@@ -0,0 +1,412 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apposed.appose.NDArray.Shape.Order.C_ORDER;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apposed.appose.NDArray;
+import org.apposed.appose.NDArray.DType;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+
+/**
+ * Read and write Appose {@link NDArray}s and {@link ShmImg}s as numpy {@code
+ * .npy} files.
+ * <p>
+ * Data is transferred between the file and the {@code NDArray} shared memory
+ * buffer directly, without intermediate heap arrays. Only native byte order is
+ * supported.
+ * <p>
+ * Files are always written in C order. Files in Fortran order are transposed
+ * into C order when read, so that reading a file yields an array of the same
+ * numpy shape and element order.
+ */
+public class Npy
+{
+	private static final byte[] MAGIC = { ( byte ) 0x93, 'N', 'U', 'M', 'P', 'Y' };
+
+	private static final Pattern DESCR = Pattern.compile( "'descr'\\s*:\\s*'([^']*)'" );
+
+	private static final Pattern FORTRAN_ORDER = Pattern.compile( "'fortran_order'\\s*:\\s*(True|False)" );
+
+	private static final Pattern SHAPE = Pattern.compile( "'shape'\\s*:\\s*\\(([^)]*)\\)" );
+
+	/**
+	 * Read a {@code .npy} file into a new {@link NDArray}.
+	 * <p>
+	 * The returned {@code NDArray} always has C order. If the file is in
+	 * Fortran order, the data is transposed while reading: each element is
+	 * copied to its transposed position, single-threaded, through a small heap
+	 * buffer. No additional shared memory is used, but this is considerably
+	 * slower than reading a C-order file, which is read directly into the
+	 * shared memory buffer.
+	 *
+	 * @param path
+	 * 		the file to read
+	 *
+	 * @return a new {@code NDArray} containing the file data
+	 *
+	 * @throws IOException
+	 * 		if the file cannot be read, or is not a {@code .npy} file with
+	 * 		supported dtype and byte order.
+	 */
+	public static NDArray read( final Path path ) throws IOException
+	{
+		try ( final FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+		{
+			final ByteBuffer preamble = ByteBuffer.allocate( 12 ).order( ByteOrder.LITTLE_ENDIAN );
+			readFully( channel, preamble, 0 );
+			for ( int i = 0; i < MAGIC.length; ++i )
+				if ( preamble.get( i ) != MAGIC[ i ] )
+					throw new IOException( "Not a .npy file: " + path );
+
+			final int major = preamble.get( 6 );
+			final long headerStart;
+			final int headerLength;
+			if ( major == 1 )
+			{
+				headerStart = 10;
+				headerLength = preamble.getShort( 8 ) & 0xffff;
+			}
+			else if ( major == 2 || major == 3 )
+			{
+				headerStart = 12;
+				headerLength = preamble.getInt( 8 );
+			}
+			else
+				throw new IOException( "Unsupported .npy version " + major + ": " + path );
+
+			final ByteBuffer headerBytes = ByteBuffer.allocate( headerLength );
+			readFully( channel, headerBytes, headerStart );
+			final String header = new String( headerBytes.array(), major == 3 ? UTF_8 : ISO_8859_1 );
+
+			final DType dType = dType( group( DESCR, header, path ) );
+			final boolean fortranOrder = Boolean.parseBoolean( group( FORTRAN_ORDER, header, path ).toLowerCase() );
+			final int[] shape = shape( group( SHAPE, header, path ), path );
+
+			final NDArray ndArray = new NDArray( dType, new NDArray.Shape( C_ORDER, shape ) );
+			try
+			{
+				if ( fortranOrder && shape.length > 1 )
+					readTransposed( channel, headerStart + headerLength, ndArray.buffer(), shape );
+				else
+					readFully( channel, ndArray.buffer(), headerStart + headerLength );
+			}
+			catch ( final IOException | RuntimeException e )
+			{
+				ndArray.close();
+				throw e;
+			}
+			return ndArray;
+		}
+	}
+
+	/**
+	 * Read a {@code .npy} file into a new {@link ShmImg} with matching type.
+	 *
+	 * @param path
+	 * 		the file to read
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return a new {@code ShmImg} containing the file data
+	 *
+	 * @throws IOException
+	 * 		if the file cannot be read, or is not a {@code .npy} file with
+	 * 		supported dtype and byte order.
+	 */
+	public static < T extends NativeType< T > > ShmImg< T > readImg( final Path path ) throws IOException
+	{
+		return new ShmImg<>( read( path ) );
+	}
+
+	/**
+	 * Write an {@link NDArray} to a {@code .npy} file.
+	 *
+	 * @param ndArray
+	 * 		the array to write
+	 * @param path
+	 * 		the file to write
+	 *
+	 * @throws IOException
+	 * 		if the file cannot be written
+	 */
+	public static void write( final NDArray ndArray, final Path path ) throws IOException
+	{
+		final ByteBuffer header = header( ndArray );
+		try ( final FileChannel channel = FileChannel.open( path,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE ) )
+		{
+			writeFully( channel, header );
+			writeFully( channel, ndArray.buffer() );
+		}
+	}
+
+	/**
+	 * Write an image to a {@code .npy} file.
+	 * <p>
+	 * If {@code rai} wraps an {@code NDArray}, it is written directly.
+	 * Otherwise, it is first copied into a temporary {@code NDArray}.
+	 *
+	 * @param rai
+	 * 		the image to write
+	 * @param path
+	 * 		the file to write
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @throws IOException
+	 * 		if the file cannot be written
+	 */
+	public static < T extends NativeType< T > > void write( final RandomAccessibleInterval< T > rai, final Path path ) throws IOException
+	{
+		if ( rai instanceof WrappedNDArray )
+			write( ( ( WrappedNDArray ) rai ).ndArray(), path );
+		else
+			try ( final ShmImg< T > copy = ShmImg.copyOf( rai ) )
+			{
+				write( copy.ndArray(), path );
+			}
+	}
+
+	/**
+	 * Read Fortran-order data starting at {@code position} into the C-order
+	 * {@code buffer} of the given numpy {@code shape}. The file is read
+	 * sequentially in chunks, and each element is copied to its transposed
+	 * position in {@code buffer}.
+	 */
+	private static void readTransposed( final FileChannel channel, final long position, final ByteBuffer buffer, final int[] shape ) throws IOException
+	{
+		final int n = shape.length;
+		long numElements = 1;
+		for ( final int s : shape )
+			numElements *= s;
+		if ( numElements == 0 )
+			return;
+		final int elementSize = ( int ) ( buffer.remaining() / numElements );
+
+		// byte strides of the numpy axes in the C-order target
+		final long[] strides = new long[ n ];
+		long stride = elementSize;
+		for ( int d = n - 1; d >= 0; --d )
+		{
+			strides[ d ] = stride;
+			stride *= shape[ d ];
+		}
+
+		final ByteBuffer target = buffer.duplicate();
+		final int base = target.position();
+		final ByteBuffer chunk = ByteBuffer.allocate( Math.max( 1, TRANSPOSE_CHUNK_SIZE / elementSize ) * elementSize );
+		final byte[] bytes = chunk.array();
+		final int[] index = new int[ n ];
+		long offset = 0;
+		long pos = position;
+		long remaining = numElements * elementSize;
+		while ( remaining > 0 )
+		{
+			final int length = ( int ) Math.min( bytes.length, remaining );
+			chunk.clear();
+			chunk.limit( length );
+			readFully( channel, chunk, pos );
+			pos += length;
+			remaining -= length;
+			for ( int i = 0; i < length; i += elementSize )
+			{
+				for ( int b = 0; b < elementSize; ++b )
+					target.put( base + ( int ) offset + b, bytes[ i + b ] );
+				// next Fortran-order index: axis 0 varies fastest
+				for ( int d = 0; d < n; ++d )
+				{
+					offset += strides[ d ];
+					if ( ++index[ d ] < shape[ d ] )
+						break;
+					offset -= strides[ d ] * shape[ d ];
+					index[ d ] = 0;
+				}
+			}
+		}
+	}
+
+	private static final int TRANSPOSE_CHUNK_SIZE = 1 << 20;
+
+	private static ByteBuffer header( final NDArray ndArray )
+	{
+		final long[] shape = ndArray.shape().toLongArray( C_ORDER );
+		final StringBuilder sb = new StringBuilder();
+		sb.append( "{'descr': '" ).append( descr( ndArray.dType() ) ).append( "', 'fortran_order': False, 'shape': (" );
+		for ( int d = 0; d < shape.length; ++d )
+		{
+			if ( d > 0 )
+				sb.append( ", " );
+			sb.append( shape[ d ] );
+		}
+		if ( shape.length == 1 )
+			sb.append( ',' );
+		sb.append( "), }" );
+
+		// Pad with spaces and terminate with '\n', such that the data starts
+		// at a multiple of 64 bytes.
+		final boolean v1 = sb.length() + 11 < 0xffff;
+		final int preambleLength = v1 ? 10 : 12;
+		final int headerLength = ( ( preambleLength + sb.length() + 1 + 63 ) / 64 ) * 64 - preambleLength;
+		while ( sb.length() < headerLength - 1 )
+			sb.append( ' ' );
+		sb.append( '\n' );
+
+		final ByteBuffer header = ByteBuffer.allocate( preambleLength + headerLength ).order( ByteOrder.LITTLE_ENDIAN );
+		header.put( MAGIC );
+		header.put( ( byte ) ( v1 ? 1 : 2 ) );
+		header.put( ( byte ) 0 );
+		if ( v1 )
+			header.putShort( ( short ) headerLength );
+		else
+			header.putInt( headerLength );
+		header.put( sb.toString().getBytes( ISO_8859_1 ) );
+		header.flip();
+		return header;
+	}
+
+	private static String descr( final DType dType )
+	{
+		final char order = nativeOrder();
+		switch ( dType )
+		{
+		case INT8:
+			return "|i1";
+		case UINT8:
+			return "|u1";
+		case BOOL:
+			return "|b1";
+		case INT16:
+			return order + "i2";
+		case INT32:
+			return order + "i4";
+		case INT64:
+			return order + "i8";
+		case UINT16:
+			return order + "u2";
+		case UINT32:
+			return order + "u4";
+		case UINT64:
+			return order + "u8";
+		case FLOAT32:
+			return order + "f4";
+		case FLOAT64:
+			return order + "f8";
+		case COMPLEX64:
+			return order + "c8";
+		case COMPLEX128:
+			return order + "c16";
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	private static DType dType( final String descr ) throws IOException
+	{
+		final String normalized = descr.startsWith( "=" ) ? nativeOrder() + descr.substring( 1 ) : descr;
+		for ( final DType dType : DType.values() )
+			if ( descr( dType ).equals( normalized ) )
+				return dType;
+		throw new IOException( "Unsupported dtype or byte order: " + descr );
+	}
+
+	private static char nativeOrder()
+	{
+		return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? '<' : '>';
+	}
+
+	private static int[] shape( final String tuple, final Path path ) throws IOException
+	{
+		final String[] tokens = tuple.split( "," );
+		int n = 0;
+		final int[] shape = new int[ tokens.length ];
+		for ( final String token : tokens )
+		{
+			if ( token.trim().isEmpty() )
+				continue;
+			try
+			{
+				shape[ n ] = Integer.parseInt( token.trim() );
+			}
+			catch ( final NumberFormatException e )
+			{
+				throw new IOException( "Malformed .npy header: " + path, e );
+			}
+			if ( shape[ n++ ] < 0 )
+				throw new IOException( "Malformed .npy header: " + path );
+		}
+		final int[] result = new int[ n ];
+		System.arraycopy( shape, 0, result, 0, n );
+		return result;
+	}
+
+	private static String group( final Pattern pattern, final String header, final Path path ) throws IOException
+	{
+		final Matcher matcher = pattern.matcher( header );
+		if ( !matcher.find() )
+			throw new IOException( "Malformed .npy header: " + path );
+		return matcher.group( 1 );
+	}
+
+	private static void readFully( final FileChannel channel, final ByteBuffer buffer, final long position ) throws IOException
+	{
+		final ByteBuffer dst = buffer.duplicate();
+		long pos = position;
+		while ( dst.hasRemaining() )
+		{
+			final int n = channel.read( dst, pos );
+			if ( n < 0 )
+				throw new EOFException();
+			pos += n;
+		}
+	}
+
+	private static void writeFully( final FileChannel channel, final ByteBuffer buffer ) throws IOException
+	{
+		final ByteBuffer src = buffer.duplicate();
+		while ( src.hasRemaining() )
+			channel.write( src );
+	}
+}
@@ -0,0 +1,60 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import static org.apposed.appose.NDArray.Shape.Order.F_ORDER;
+
+import java.nio.ByteBuffer;
+
+import org.apposed.appose.NDArray;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.type.NativeType;
+
+/**
+ * Creates the {@code ArrayImg}s wrapped by {@link ShmImg}.
+ * <p>
+ * This implementation uses NIO {@code BufferAccess}. On Java 22 and newer, it
+ * is replaced by an implementation using {@code MemorySegment} accesses (see
+ * {@code src/main/java22}, packaged as a multi-release JAR). Both
+ * implementations are limited to buffers smaller than 2<sup>31</sup> bytes.
+ */
+class ShmAccesses
+{
+	static < T extends NativeType< T > > ArrayImg< T, ? > asArrayImg( final NDArray ndArray, final T type )
+	{
+		NDArrays.checkType( ndArray.dType(), type );
+		return asArrayImg( ndArray.buffer(), ndArray.shape().toLongArray( F_ORDER ), type );
+	}
+
+	static < T extends NativeType< T > > ArrayImg< T, ? > asArrayImg( final ByteBuffer buffer, final long[] dimensions, final T type )
+	{
+		return NDArrays.asArrayImg( buffer, dimensions, type );
+	}
+}
@@ -0,0 +1,467 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apposed.appose.NDArray;
+import org.apposed.appose.Service;
+import org.apposed.appose.Service.Task;
+import org.apposed.appose.Service.TaskStatus;
+
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderCache;
+import net.imglib2.img.basictypeaccess.nio.BufferAccess;
+import net.imglib2.img.basictypeaccess.nio.BufferDataAccessFactory;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.NativeTypeFactory;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.Intervals;
+
+/**
+ * A {@code CachedCellImg} whose cells are shared memory {@link NDArray}s that
+ * are filled on demand by an Appose worker.
+ * <p>
+ * When cells are missing, a single task is run on the worker {@code Service}
+ * to fill them. The task inputs contain the given constant inputs, and a list
+ * {@code cells}, with one map per cell, containing
+ * <ul>
+ * <li>{@code "index"}: the flat cell index,</li>
+ * <li>{@code "min"}: the minimum of the cell (ImgLib2 F-order),</li>
+ * <li>{@code "dims"}: the dimensions of the cell (ImgLib2 F-order), and</li>
+ * <li>{@code "data"}: the {@code NDArray} to fill in place.</li>
+ * </ul>
+ * For example, a Python worker script could be
+ * <pre>{@code
+ * for cell in cells:
+ *     z, y, x = (slice(m, m + d) for m, d in zip(reversed(cell['min']), reversed(cell['dims'])))
+ *     cell['data'].ndarray()[:] = volume[z, y, x]
+ * }</pre>
+ * Together with a missing cell, up to {@code prefetch} following cells (in
+ * flat index order, which is the order in which cursors visit cells) are
+ * requested in the same task.
+ * <p>
+ * The {@code budget} is a soft limit on the shared memory of cells held by
+ * this image: the strong cache is sized such that its cells, together with up
+ * to {@code prefetch} prefetched cells, fit into the budget. Prefetched cells
+ * that are dropped before they were requested are released immediately.
+ * <p>
+ * <em>Releasing the shared memory of evicted cells depends on garbage
+ * collection.</em> Accessors (for example {@code RandomAccess}es) may still
+ * reference a cell after it was evicted from the strong cache, so its shared
+ * memory is only released once the cell is garbage collected, and the next
+ * cell is loaded. Until then, evicted cells are not counted against the
+ * budget, so shared memory use can temporarily exceed it. {@link #close()}
+ * releases all cells; the image must not be used after that.
+ *
+ * @param <T>
+ * 		pixel type
+ * @param <A>
+ * 		access type
+ */
+public class ShmCachedCellImg< T extends NativeType< T >, A extends BufferAccess< A > > extends CachedCellImg< T, A > implements AutoCloseable
+{
+	private final Loader< T, A > loader;
+
+	private ShmCachedCellImg( final CellGrid grid, final Fraction entitiesPerPixel, final Cache< Long, Cell< A > > cache, final A accessType, final Loader< T, A > loader )
+	{
+		super( grid, entitiesPerPixel, cache, accessType );
+		this.loader = loader;
+	}
+
+	/**
+	 * Create a {@code ShmCachedCellImg}.
+	 *
+	 * @param service
+	 * 		worker that fills cells
+	 * @param script
+	 * 		script that fills the {@code cells} in its inputs
+	 * @param inputs
+	 * 		constant inputs passed to every {@code script} task (in addition to
+	 * 		{@code cells})
+	 * @param type
+	 * 		pixel type
+	 * @param dimensions
+	 * 		image dimensions
+	 * @param cellDimensions
+	 * 		cell dimensions
+	 * @param budget
+	 * 		soft limit for the number of bytes of strongly cached and
+	 * 		prefetched cells
+	 * @param prefetch
+	 * 		number of cells to request in addition to a missing cell
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return a new {@code ShmCachedCellImg}
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public static < T extends NativeType< T > > ShmCachedCellImg< T, ? > create(
+			final Service service,
+			final String script,
+			final Map< String, Object > inputs,
+			final T type,
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final long budget,
+			final int prefetch )
+	{
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final NativeTypeFactory typeFactory = type.getNativeTypeFactory();
+		final BufferAccess accessType = BufferDataAccessFactory.get( typeFactory );
+		final Loader loader = new Loader( filler( service, script, inputs ), type.createVariable(), accessType, grid, prefetch );
+
+		// leave room for prefetched cells within the budget
+		final long cellBytes = Math.max( 1, cellBytes( type, cellDimensions ) );
+		final int maxNumCells = ( int ) Math.max( 1, Math.min( Integer.MAX_VALUE, budget / cellBytes - prefetch ) );
+		final Cache cache = new GuardedStrongRefLoaderCache( maxNumCells ).withLoader( loader );
+		loader.cache = cache;
+
+		final ShmCachedCellImg img = new ShmCachedCellImg( grid, type.getEntitiesPerPixel(), cache, accessType, loader );
+		img.setLinkedType( typeFactory.createLinkedType( img ) );
+		return img;
+	}
+
+	/**
+	 * Release the shared memory of all cells. The image must not be used
+	 * after this.
+	 */
+	@Override
+	public void close()
+	{
+		getCache().invalidateAll();
+		loader.close();
+	}
+
+	/**
+	 * Fills cells by running {@code script} on {@code service}, with the cell
+	 * requests as {@code cells} in addition to the constant {@code inputs}.
+	 */
+	private static Filler filler( final Service service, final String script, final Map< String, Object > inputs )
+	{
+		return cells -> {
+			final Map< String, Object > taskInputs = new HashMap<>( inputs );
+			taskInputs.put( "cells", cells );
+			final Task task = service.task( script, taskInputs );
+			task.waitFor();
+			if ( task.status != TaskStatus.COMPLETE )
+				throw new IOException( "Worker failed to fill cells: " + task.error );
+		};
+	}
+
+	private static long cellBytes( final NativeType< ? > type, final int[] cellDimensions )
+	{
+		return ( long ) Math.ceil( Intervals.numElements( cellDimensions ) * type.getEntitiesPerPixel().getRatio() ) * bytesPerEntity( type );
+	}
+
+	private static int bytesPerEntity( final NativeType< ? > type )
+	{
+		switch ( type.getNativeTypeFactory().getPrimitiveType() )
+		{
+		case BOOLEAN:
+		case BYTE:
+			return 1;
+		case CHAR:
+		case SHORT:
+			return 2;
+		case INT:
+		case FLOAT:
+			return 4;
+		case LONG:
+		case DOUBLE:
+			return 8;
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Fills the {@code NDArray}s of a list of cell requests (see the class
+	 * javadoc for the request format).
+	 */
+	interface Filler
+	{
+		void fill( List< Map< String, Object > > cells ) throws Exception;
+	}
+
+	/**
+	 * Loads missing cells (plus prefetched cells) in one {@link Filler} call,
+	 * keeps track of the shared memory allocated for cells, and releases the
+	 * shared memory of cells whose access is no longer referenced.
+	 */
+	static class Loader< T extends NativeType< T >, A extends BufferAccess< A > > implements CacheLoader< Long, Cell< A > >
+	{
+		private final Filler filler;
+
+		private final T type;
+
+		private final A accessType;
+
+		private final CellGrid grid;
+
+		private final int prefetch;
+
+		private final long numCells;
+
+		private Cache< Long, Cell< A > > cache;
+
+		/**
+		 * Cells that were loaded ahead of being requested. These have not been
+		 * handed out, so their shared memory can be released immediately when
+		 * they are dropped.
+		 */
+		private final LinkedHashMap< Long, Loaded< A > > prefetched = new LinkedHashMap<>();
+
+		private final ReferenceQueue< Object > queue = new ReferenceQueue<>();
+
+		private final Set< SegmentRef > refs = new HashSet<>();
+
+		/**
+		 * Bytes of shared memory of all cells in {@link #refs}, including
+		 * evicted cells that are not yet garbage collected.
+		 */
+		private long allocatedBytes;
+
+		Loader(
+				final Filler filler,
+				final T type,
+				final A accessType,
+				final CellGrid grid,
+				final int prefetch )
+		{
+			this.filler = filler;
+			this.type = type;
+			this.accessType = accessType;
+			this.grid = grid;
+			this.prefetch = prefetch;
+			this.numCells = Intervals.numElements( grid.getGridDimensions() );
+		}
+
+		/**
+		 * Create a {@code Loader} for cells of the given {@code type}.
+		 */
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		static < T extends NativeType< T > > Loader< T, ? > create( final Filler filler, final T type, final CellGrid grid, final int prefetch )
+		{
+			final BufferAccess accessType = BufferDataAccessFactory.get( ( NativeTypeFactory ) type.getNativeTypeFactory() );
+			return new Loader( filler, type.createVariable(), accessType, grid, prefetch );
+		}
+
+		@Override
+		public Cell< A > get( final Long key ) throws Exception
+		{
+			releaseUnreferenced();
+
+			final List< Long > keys = new ArrayList<>();
+			synchronized ( this )
+			{
+				final Loaded< A > loaded = prefetched.remove( key );
+				if ( loaded != null )
+					return loaded.cell;
+				keys.add( key );
+				for ( long k = key + 1; k < numCells && keys.size() <= prefetch; ++k )
+					if ( !prefetched.containsKey( k ) && ( cache == null || cache.getIfPresent( k ) == null ) )
+						keys.add( k );
+			}
+
+			final Map< Long, Loaded< A > > cells = load( keys );
+			synchronized ( this )
+			{
+				for ( final Map.Entry< Long, Loaded< A > > entry : cells.entrySet() )
+					if ( !entry.getKey().equals( key ) )
+						prefetched.put( entry.getKey(), entry.getValue() );
+				// Drop (and release) the oldest prefetched cells.
+				final Iterator< Loaded< A > > it = prefetched.values().iterator();
+				while ( prefetched.size() > prefetch && it.hasNext() )
+				{
+					release( it.next().ref );
+					it.remove();
+				}
+			}
+			return cells.get( key ).cell;
+		}
+
+		/**
+		 * Get the number of bytes of shared memory of all cells that have not
+		 * been released yet.
+		 */
+		synchronized long allocatedBytes()
+		{
+			return allocatedBytes;
+		}
+
+		/**
+		 * Get the number of cells that were prefetched but not yet requested.
+		 */
+		synchronized int numPrefetched()
+		{
+			return prefetched.size();
+		}
+
+		private Map< Long, Loaded< A > > load( final List< Long > keys ) throws Exception
+		{
+			final Map< Long, Cell< A > > cells = new HashMap<>();
+			final List< NDArray > ndArrays = new ArrayList<>();
+			final List< Map< String, Object > > requests = new ArrayList<>();
+			final int n = grid.numDimensions();
+			try
+			{
+				for ( final long key : keys )
+				{
+					final long[] cellMin = new long[ n ];
+					final int[] cellDims = new int[ n ];
+					grid.getCellDimensions( key, cellMin, cellDims );
+					final NDArray ndArray = NDArrays.ndArray( type, cellDims );
+					ndArrays.add( ndArray );
+
+					final List< Long > min = new ArrayList<>();
+					final List< Integer > dims = new ArrayList<>();
+					for ( int d = 0; d < n; ++d )
+					{
+						min.add( cellMin[ d ] );
+						dims.add( cellDims[ d ] );
+					}
+					final Map< String, Object > request = new HashMap<>();
+					request.put( "index", key );
+					request.put( "min", min );
+					request.put( "dims", dims );
+					request.put( "data", ndArray );
+					requests.add( request );
+
+					cells.put( key, new Cell<>( cellDims, cellMin, accessType.newInstance( ndArray.buffer(), true ) ) );
+				}
+				filler.fill( requests );
+			}
+			catch ( final Exception e )
+			{
+				for ( final NDArray ndArray : ndArrays )
+					ndArray.close();
+				throw e;
+			}
+
+			final Map< Long, Loaded< A > > loaded = new HashMap<>();
+			synchronized ( this )
+			{
+				for ( int i = 0; i < keys.size(); ++i )
+				{
+					final Cell< A > cell = cells.get( keys.get( i ) );
+					final NDArray ndArray = ndArrays.get( i );
+					final SegmentRef ref = new SegmentRef( cell.getData(), ndArray, ndArray.buffer().capacity(), queue );
+					refs.add( ref );
+					allocatedBytes += ref.bytes;
+					loaded.put( keys.get( i ), new Loaded<>( cell, ref ) );
+				}
+			}
+			return loaded;
+		}
+
+		private void releaseUnreferenced()
+		{
+			Reference< ? > ref;
+			while ( ( ref = queue.poll() ) != null )
+				release( ( SegmentRef ) ref );
+		}
+
+		/**
+		 * Close the {@code NDArray} of {@code ref}, if it was not released
+		 * already.
+		 */
+		private void release( final SegmentRef ref )
+		{
+			synchronized ( this )
+			{
+				if ( !refs.remove( ref ) )
+					return;
+				allocatedBytes -= ref.bytes;
+			}
+			ref.clear();
+			ref.ndArray.close();
+		}
+
+		synchronized void close()
+		{
+			prefetched.clear();
+			for ( final SegmentRef ref : refs )
+			{
+				ref.clear();
+				ref.ndArray.close();
+			}
+			refs.clear();
+			allocatedBytes = 0;
+		}
+	}
+
+	/**
+	 * A loaded cell and the reference that releases its {@code NDArray}.
+	 */
+	private static class Loaded< A >
+	{
+		final Cell< A > cell;
+
+		final SegmentRef ref;
+
+		Loaded( final Cell< A > cell, final SegmentRef ref )
+		{
+			this.cell = cell;
+			this.ref = ref;
+		}
+	}
+
+	/**
+	 * Closes the {@code NDArray} of a cell when its access becomes unreachable.
+	 */
+	private static class SegmentRef extends PhantomReference< Object >
+	{
+		final NDArray ndArray;
+
+		final long bytes;
+
+		SegmentRef( final Object access, final NDArray ndArray, final long bytes, final ReferenceQueue< Object > queue )
+		{
+			super( access, queue );
+			this.ndArray = ndArray;
+			this.bytes = bytes;
+		}
+	}
+}
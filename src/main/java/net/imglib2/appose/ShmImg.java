@@ -28,19 +28,21 @@
  */
 package net.imglib2.appose;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import org.apposed.appose.NDArray;
 
 import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
-import net.imglib2.img.ImgFactory;
 import net.imglib2.img.WrappedImg;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.stream.LocalizableSpliterator;
 import net.imglib2.type.NativeType;
+import net.imglib2.util.Cast;
 import net.imglib2.util.ImgUtil;
 import net.imglib2.util.Util;
 
@@ -58,13 +60,21 @@ public class ShmImg< T extends NativeType< T > > implements WrappedNDArray, Wrap
 
 	private final ArrayImg< T, ? > img;
 
+	private final boolean readOnly;
+
 	/**
 	 * Copy the given {@code RandomAccessibleInterval} into a new {@link ShmImg}.
+	 * <p>
+	 * If {@code rai} is a {@code ShmImg} of the same type, the underlying
+	 * buffer is copied in bulk (and in parallel).
 	 */
 	public static < T extends NativeType< T > > ShmImg< T > copyOf(RandomAccessibleInterval< T > rai )
 	{
 		final ShmImg< T > copy = new ShmImg<>( rai.getType(), Util.long2int( rai.dimensionsAsLongArray() ) );
-		ImgUtil.copy( rai, copy );
+		if ( rai instanceof ShmImg && ( ( ShmImg< T > ) rai ).ndArray().dType() == copy.ndArray().dType() )
+			NDArrays.copy( ( ( ShmImg< T > ) rai ).ndArray().buffer(), copy.ndArray().buffer() );
+		else
+			ImgUtil.copy( rai, copy );
 		return copy;
 	}
 
@@ -75,8 +85,7 @@ public class ShmImg< T extends NativeType< T > > implements WrappedNDArray, Wrap
 	 */
 	public ShmImg(final NDArray ndArray )
 	{
-		this.ndArray = ndArray;
-		this.img = NDArrays.asArrayImg( ndArray );
+		this( Cast.unchecked( DTypes.type( ndArray.dType() ).get() ), ndArray );
 	}
 
 	/**
@@ -92,10 +101,65 @@ public class ShmImg< T extends NativeType< T > > implements WrappedNDArray, Wrap
 		this( type, NDArrays.ndArray( type, dimensions ) );
 	}
 
-	private ShmImg(final T type, final NDArray ndArray )
+	/**
+	 * Wrap the specified {@code ndArray} as an {@code ShmImg} of the given
+	 * {@code type}, which must fit the {@code ndArray.dType()}.
+	 */
+	ShmImg(final T type, final NDArray ndArray )
+	{
+		this( ndArray, ShmAccesses.asArrayImg( ndArray, type ), false );
+	}
+
+	private ShmImg( final NDArray ndArray, final ArrayImg< T, ? > img, final boolean readOnly )
 	{
 		this.ndArray = ndArray;
-		this.img = NDArrays.asArrayImg( ndArray, type );
+		this.img = img;
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * Create a read-only copy of this image.
+	 * <p>
+	 * The pixel data is copied in bulk (and in parallel) into a new {@link
+	 * NDArray}, which is wrapped as a read-only {@code ShmImg}. This is a full
+	 * copy: it takes time and shared memory proportional to the image size,
+	 * and does not share unmodified data with this image. Writing to the copy
+	 * through ImgLib2 throws an exception. The copy {@link #ndArray()} can be
+	 * passed to workers like any other.
+	 * <p>
+	 * The copy is <em>not</em> consistent if this image is written
+	 * concurrently (for example by a worker task, or another thread): it may
+	 * then contain data from different moments. Only take a copy while no
+	 * writes are in progress.
+	 * <p>
+	 * The copy is independent of this image, and must be {@link #close()
+	 * closed} separately.
+	 *
+	 * @return read-only copy of this image
+	 */
+	public ShmImg< T > snapshot()
+	{
+		final NDArray copy = new NDArray( ndArray.dType(), ndArray.shape() );
+		try
+		{
+			NDArrays.copy( ndArray.buffer(), copy.buffer() );
+			final ByteBuffer buffer = copy.buffer().asReadOnlyBuffer().order( ByteOrder.nativeOrder() );
+			return new ShmImg<>( copy, ShmAccesses.asArrayImg( buffer, img.dimensionsAsLongArray(), getType() ), true );
+		}
+		catch ( final RuntimeException e )
+		{
+			copy.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Whether this image is read-only (see {@link #snapshot()}). Read-only
+	 * images must not be passed to workers as outputs.
+	 */
+	public boolean isReadOnly()
+	{
+		return readOnly;
 	}
 
 	// -- WrappedNDArray ------------------------------------------------------
@@ -197,44 +261,14 @@ public class ShmImg< T extends NativeType< T > > implements WrappedNDArray, Wrap
 	// -- Img -----------------------------------------------------------------
 
 	@Override
-	public ImgFactory< T > factory()
+	public ShmImgFactory< T > factory()
 	{
 		return new ShmImgFactory<>( getType() );
 	}
 
 	@Override
-	public Img< T > copy()
+	public ShmImg< T > copy()
 	{
 		return copyOf( this );
 	}
-
-	private static class ShmImgFactory< T extends NativeType< T > > extends ImgFactory< T >
-	{
-		ShmImgFactory( T type )
-		{
-			super( type );
-		}
-
-		@Override
-		public Img< T > create( final long... dimensions )
-		{
-			return new ShmImg<>( type(), Util.long2int( dimensions ) );
-		}
-
-		@Override
-		@SuppressWarnings({ "unchecked", "rawtypes" })
-		public < S > ImgFactory< S > imgFactory( final S type ) throws IncompatibleTypeException
-		{
-			if ( type instanceof NativeType )
-				return new ShmImgFactory( ( NativeType ) type );
-			throw new IncompatibleTypeException( this, type.getClass().getCanonicalName() + " does not implement NativeType." );
-		}
-
-		@Override
-		@Deprecated
-		public Img< T > create( final long[] dim, final T type )
-		{
-			return new ShmImg<>( type, Util.long2int( dim ) );
-		}
-	}
 }
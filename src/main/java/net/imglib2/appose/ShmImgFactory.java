@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import java.util.Arrays;
+
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.Util;
+
+/**
+ * Factory for {@link ShmImg}s.
+ * <p>
+ * Use {@link #reuse(ShmImg, long...)} to allocate output images once and
+ * reuse them across Appose tasks. Pass the {@link ShmImg#ndArray() NDArray}
+ * of the output image in the task inputs (see {@link
+ * NDArrays#bindOutput(java.util.Map, String, WrappedNDArray)}), and have the
+ * worker write into it in place. For example, using numpy:
+ * <pre>{@code
+ * np.multiply(image.ndarray(), 2, out=output.ndarray())
+ * }</pre>
+ * or
+ * <pre>{@code
+ * output.ndarray()[:] = result
+ * }</pre>
+ * The result is then available in the output {@code ShmImg} after the task
+ * completes, without allocating anything on the Java side.
+ *
+ * @param <T>
+ * 		pixel type
+ */
+public class ShmImgFactory< T extends NativeType< T > > extends ImgFactory< T >
+{
+	public ShmImgFactory( final T type )
+	{
+		super( type );
+	}
+
+	@Override
+	public ShmImg< T > create( final long... dimensions )
+	{
+		return new ShmImg<>( type(), Util.long2int( dimensions ) );
+	}
+
+	/**
+	 * Return {@code img} if it has the given {@code dimensions} and the type
+	 * of this factory, and is not {@link ShmImg#isReadOnly() read-only}.
+	 * Otherwise, close {@code img} and create a new {@code ShmImg}.
+	 *
+	 * @param img
+	 * 		image to reuse (may be {@code null})
+	 * @param dimensions
+	 * 		the required dimensions.
+	 *
+	 * @return {@code img}, or a new {@code ShmImg}
+	 */
+	public ShmImg< T > reuse( final ShmImg< T > img, final long... dimensions )
+	{
+		if ( img != null )
+		{
+			if ( !img.isReadOnly()
+					&& Arrays.equals( img.dimensionsAsLongArray(), dimensions )
+					&& img.getType().getClass().equals( type().getClass() ) )
+				return img;
+			img.close();
+		}
+		return create( dimensions );
+	}
+
+	@Override
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public < S > ImgFactory< S > imgFactory( final S type ) throws IncompatibleTypeException
+	{
+		if ( type instanceof NativeType )
+			return new ShmImgFactory( ( NativeType ) type );
+		throw new IncompatibleTypeException( this, type.getClass().getCanonicalName() + " does not implement NativeType." );
+	}
+
+	@Override
+	@Deprecated
+	public ShmImg< T > create( final long[] dim, final T type )
+	{
+		return new ShmImg<>( type, Util.long2int( dim ) );
+	}
+}
@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apposed.appose.NDArray;
+
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelingMapping;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+
+/**
+ * An {@code ImgLabeling} with a {@link ShmImg} index image.
+ * <p>
+ * The index image can be passed to Appose without copying (use {@link
+ * #ndArray()}). The {@code LabelingMapping} is passed alongside it as a list
+ * of label sets (use {@link #labelSets()}), where the {@code i}-th element
+ * contains the labels of pixels with index {@code i}. The first element must
+ * be the empty set (index {@code 0} means "no labels").
+ * <p>
+ * A label image produced by a worker, where each pixel value is a single label
+ * and {@code 0} is background, can be wrapped without scanning its pixels
+ * using {@link #fromLabelImage(NDArray, int)}.
+ *
+ * @param <T>
+ * 		label type
+ * @param <I>
+ * 		index type
+ */
+public class ShmImgLabeling< T, I extends IntegerType< I > & NativeType< I > > extends ImgLabeling< T, I > implements WrappedNDArray
+{
+	private final ShmImg< I > indexImg;
+
+	/**
+	 * Create a {@code ShmImgLabeling} with an empty {@code LabelingMapping}
+	 * over the given index image.
+	 *
+	 * @param indexImg
+	 * 		the index image
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code indexImg} does not have an {@code IntegerType}
+	 */
+	public ShmImgLabeling( final ShmImg< I > indexImg )
+	{
+		super( checkIndexType( indexImg ) );
+		this.indexImg = indexImg;
+	}
+
+	/**
+	 * Create a {@code ShmImgLabeling} over the given index image, with the
+	 * given label sets.
+	 *
+	 * @param indexImg
+	 * 		the index image
+	 * @param labelSets
+	 * 		the {@code i}-th element contains the labels of index {@code i}.
+	 * 		The first element must be empty.
+	 */
+	public ShmImgLabeling( final ShmImg< I > indexImg, final List< ? extends Collection< T > > labelSets )
+	{
+		this( indexImg );
+		new MappingAccess<>( getMapping() ).labelSets( labelSets );
+	}
+
+	/**
+	 * Wrap the specified {@code ndArray} as the index image of a {@code
+	 * ShmImgLabeling} with the given label sets.
+	 *
+	 * @param ndArray
+	 * 		the index image array to wrap (must have integer {@code DType}).
+	 * @param labelSets
+	 * 		the {@code i}-th element contains the labels of index {@code i}.
+	 * 		The first element must be empty.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code ndArray} does not have an integer {@code DType}
+	 */
+	public static < T, I extends IntegerType< I > & NativeType< I > > ShmImgLabeling< T, I > wrap(
+			final NDArray ndArray,
+			final List< ? extends Collection< T > > labelSets )
+	{
+		return new ShmImgLabeling<>( new ShmImg<>( ndArray ), labelSets );
+	}
+
+	/**
+	 * Wrap a label image {@code ndArray} as a {@code ShmImgLabeling}. Pixel
+	 * value {@code 0} is background, and every other pixel value {@code i}
+	 * is the single label {@code i}.
+	 * <p>
+	 * Pixels are not scanned, so {@code maxLabel} must be at least as large as
+	 * the largest pixel value in {@code ndArray}.
+	 *
+	 * @param ndArray
+	 * 		the label image array to wrap (must have integer {@code DType}).
+	 * @param maxLabel
+	 * 		the largest label occurring in {@code ndArray}.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code ndArray} does not have an integer {@code DType}
+	 */
+	public static < I extends IntegerType< I > & NativeType< I > > ShmImgLabeling< Integer, I > fromLabelImage(
+			final NDArray ndArray,
+			final int maxLabel )
+	{
+		final List< List< Integer > > labelSets = new ArrayList<>( maxLabel + 1 );
+		labelSets.add( Collections.emptyList() );
+		for ( int i = 1; i <= maxLabel; ++i )
+			labelSets.add( Collections.singletonList( i ) );
+		return wrap( ndArray, labelSets );
+	}
+
+	/**
+	 * Copy the given {@code ImgLabeling} into a new {@link ShmImgLabeling}.
+	 * The index image is copied, and the {@code LabelingMapping} is
+	 * transferred as is.
+	 */
+	public static < T, I extends IntegerType< I > & NativeType< I > > ShmImgLabeling< T, I > copyOf( final ImgLabeling< T, I > labeling )
+	{
+		final ShmImg< I > indexImg = ShmImg.copyOf( labeling.getIndexImg() );
+		return new ShmImgLabeling<>( indexImg, new MappingAccess<>( labeling.getMapping() ).labelSets() );
+	}
+
+	/**
+	 * Get the label sets of the {@code LabelingMapping} in a form that can be
+	 * passed to Appose alongside the {@link #ndArray() index image}. The
+	 * {@code i}-th element contains the labels of index {@code i}.
+	 *
+	 * @return list of label sets
+	 */
+	public List< List< T > > labelSets()
+	{
+		return new MappingAccess<>( getMapping() ).labelSets();
+	}
+
+	@Override
+	public ShmImg< I > getIndexImg()
+	{
+		return indexImg;
+	}
+
+	// -- WrappedNDArray ------------------------------------------------------
+
+	@Override
+	public NDArray ndArray()
+	{
+		return indexImg.ndArray();
+	}
+
+	private static < I extends IntegerType< I > & NativeType< I > > ShmImg< I > checkIndexType( final ShmImg< I > indexImg )
+	{
+		// ShmImg< ? > avoids the implicit cast to IntegerType that would
+		// otherwise throw ClassCastException for a mismatching NDArray
+		final Object type = ( ( ShmImg< ? > ) indexImg ).getType();
+		if ( !( type instanceof IntegerType ) )
+			throw new IllegalArgumentException( "index image must have an IntegerType, not " + type.getClass().getSimpleName() );
+		return indexImg;
+	}
+
+	private static class MappingAccess< T > extends LabelingMapping.SerialisationAccess< T >
+	{
+		MappingAccess( final LabelingMapping< T > mapping )
+		{
+			super( mapping );
+		}
+
+		List< List< T > > labelSets()
+		{
+			final List< Set< T > > sets = getLabelSets();
+			final List< List< T > > labelSets = new ArrayList<>( sets.size() );
+			for ( final Set< T > labels : sets )
+				labelSets.add( new ArrayList<>( labels ) );
+			return labelSets;
+		}
+
+		void labelSets( final List< ? extends Collection< T > > labelSets )
+		{
+			final List< Set< T > > sets = new ArrayList<>( labelSets.size() );
+			for ( final Collection< T > labels : labelSets )
+				sets.add( new HashSet<>( labels ) );
+			setLabelSets( sets );
+		}
+	}
+}
@@ -0,0 +1,449 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import static org.apposed.appose.NDArray.Shape.Order.F_ORDER;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.apposed.appose.NDArray;
+
+import net.imglib2.util.Intervals;
+
+/**
+ * Parallel element-wise operations on the {@link NDArray} buffers of {@link
+ * ShmImg}s (or other {@link WrappedNDArray}s).
+ * <p>
+ * Operations process the flat buffers in blocks: a block of elements is read
+ * into a {@code double[]} with a loop specialized for the source {@code
+ * DType}, the operation is applied to the whole block, and the block is
+ * written with a loop specialized for the target {@code DType}. Source and
+ * target may have any combination of real {@code DType}s. Values are computed
+ * in {@code double}, so {@code INT64} and {@code UINT64} values with magnitude
+ * above 2<sup>53</sup> are rounded to the nearest {@code double} (for
+ * example, an identity map of {@code 2^53 + 1} yields {@code 2^53}). Results
+ * written to integer types are rounded and clamped to the range of the type. Results written to {@code BOOL} are
+ * {@code true} if non-zero after rounding.
+ * <p>
+ * The operations created by {@code ShmOps} ({@link UnaryOp}, {@link
+ * BinaryOp}) process a whole block in one call. Chains of operations are
+ * fused into a single pass over memory by composing them, for example
+ * <pre>{@code
+ * ShmOps.map( img, out, ShmOps.scale( 2 ).andThen( ShmOps.clip( 0, 255 ) ) );
+ * ShmOps.map( a, b, out, ShmOps.fuse( ShmOps.add(), ShmOps.threshold( 10 ) ) );
+ * }</pre>
+ * Composition only covers one binary operation followed by unary operations.
+ * Expressions over more than two inputs, such as {@code (a - b) * mask}, are
+ * fused with an {@link NaryOp}:
+ * <pre>{@code
+ * ShmOps.map( new WrappedNDArray[] { a, b, mask }, out, ( in, result, n ) -> {
+ *     for ( int i = 0; i < n; ++i )
+ *         result[ i ] = ( in[ 0 ][ i ] - in[ 1 ][ i ] ) * in[ 2 ][ i ];
+ * } );
+ * }</pre>
+ * Arbitrary {@code DoubleUnaryOperator}s and {@code DoubleBinaryOperator}s
+ * are also accepted, but are called once per element.
+ */
+public class ShmOps
+{
+	private static final int MIN_CHUNK_SIZE = 1 << 14;
+
+	private static final int BLOCK_SIZE = 1 << 10;
+
+	/**
+	 * An element-wise operation that is applied to a block of values at once.
+	 */
+	@FunctionalInterface
+	public interface UnaryOp
+	{
+		/**
+		 * Replace each of the first {@code n} elements of {@code values} by
+		 * the result of this operation.
+		 */
+		void apply( double[] values, int n );
+
+		/**
+		 * Compose this operation with {@code after}, which is applied to the
+		 * results of this operation.
+		 */
+		default UnaryOp andThen( final UnaryOp after )
+		{
+			return ( values, n ) -> {
+				apply( values, n );
+				after.apply( values, n );
+			};
+		}
+	}
+
+	/**
+	 * An element-wise operation on two operands that is applied to blocks of
+	 * values at once.
+	 */
+	@FunctionalInterface
+	public interface BinaryOp
+	{
+		/**
+		 * Replace each of the first {@code n} elements of {@code values} by
+		 * the result of this operation applied to it and the corresponding
+		 * element of {@code other}.
+		 */
+		void apply( double[] values, double[] other, int n );
+
+		/**
+		 * Compose this operation with {@code after}, which is applied to the
+		 * results of this operation.
+		 */
+		default BinaryOp andThen( final UnaryOp after )
+		{
+			return ( values, other, n ) -> {
+				apply( values, other, n );
+				after.apply( values, n );
+			};
+		}
+	}
+
+	/**
+	 * An element-wise operation on any number of operands that is applied to
+	 * blocks of values at once.
+	 */
+	@FunctionalInterface
+	public interface NaryOp
+	{
+		/**
+		 * Set each of the first {@code n} elements of {@code result} to the
+		 * result of this operation applied to the corresponding elements of
+		 * {@code operands[ 0 ]}, {@code operands[ 1 ]}, etc.
+		 */
+		void apply( double[][] operands, double[] result, int n );
+
+		/**
+		 * Compose this operation with {@code after}, which is applied to the
+		 * results of this operation.
+		 */
+		default NaryOp andThen( final UnaryOp after )
+		{
+			return ( operands, result, n ) -> {
+				apply( operands, result, n );
+				after.apply( result, n );
+			};
+		}
+	}
+
+	/**
+	 * Apply {@code op} to each element of {@code img}, in place.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code img} is a read-only {@code ShmImg}, or its {@code DType}
+	 * 		is not supported
+	 */
+	public static void apply( final WrappedNDArray img, final UnaryOp op )
+	{
+		map( img, img, op );
+	}
+
+	/**
+	 * Apply {@code op} to each element of {@code img}, in place. {@code op}
+	 * is called once per element.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code img} is a read-only {@code ShmImg}, or its {@code DType}
+	 * 		is not supported
+	 */
+	public static void apply( final WrappedNDArray img, final DoubleUnaryOperator op )
+	{
+		map( img, img, elementwise( op ) );
+	}
+
+	/**
+	 * Set each element of {@code target} to {@code op} applied to the
+	 * corresponding element of {@code source}.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code source} and {@code target} have different shapes, if
+	 * 		{@code target} is a read-only {@code ShmImg}, or if their {@code
+	 * 		DType}s are not supported
+	 */
+	public static void map( final WrappedNDArray source, final WrappedNDArray target, final UnaryOp op )
+	{
+		checkWritable( target );
+		final int size = size( target.ndArray(), source.ndArray() );
+		final FlatAccess in = FlatAccess.of( source.ndArray() );
+		final FlatAccess out = FlatAccess.of( target.ndArray() );
+		Chunks.forEach( size, MIN_CHUNK_SIZE, ( from, to ) -> {
+			final double[] values = new double[ BLOCK_SIZE ];
+			for ( int i = from, n; i < to; i += n )
+			{
+				n = Math.min( BLOCK_SIZE, to - i );
+				in.get( i, values, n );
+				op.apply( values, n );
+				out.set( i, values, n );
+			}
+		} );
+	}
+
+	/**
+	 * Set each element of {@code target} to {@code op} applied to the
+	 * corresponding element of {@code source}. {@code op} is called once per
+	 * element.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code source} and {@code target} have different shapes, if
+	 * 		{@code target} is a read-only {@code ShmImg}, or if their {@code
+	 * 		DType}s are not supported
+	 */
+	public static void map( final WrappedNDArray source, final WrappedNDArray target, final DoubleUnaryOperator op )
+	{
+		map( source, target, elementwise( op ) );
+	}
+
+	/**
+	 * Set each element of {@code target} to {@code op} applied to the
+	 * corresponding elements of {@code a} and {@code b}. {@code target} may
+	 * be the same as {@code a} or {@code b}.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code a}, {@code b}, and {@code target} have different shapes,
+	 * 		if {@code target} is a read-only {@code ShmImg}, or if their {@code
+	 * 		DType}s are not supported
+	 */
+	public static void map( final WrappedNDArray a, final WrappedNDArray b, final WrappedNDArray target, final BinaryOp op )
+	{
+		checkWritable( target );
+		final int size = size( target.ndArray(), a.ndArray(), b.ndArray() );
+		final FlatAccess inA = FlatAccess.of( a.ndArray() );
+		final FlatAccess inB = FlatAccess.of( b.ndArray() );
+		final FlatAccess out = FlatAccess.of( target.ndArray() );
+		Chunks.forEach( size, MIN_CHUNK_SIZE, ( from, to ) -> {
+			final double[] values = new double[ BLOCK_SIZE ];
+			final double[] other = new double[ BLOCK_SIZE ];
+			for ( int i = from, n; i < to; i += n )
+			{
+				n = Math.min( BLOCK_SIZE, to - i );
+				inA.get( i, values, n );
+				inB.get( i, other, n );
+				op.apply( values, other, n );
+				out.set( i, values, n );
+			}
+		} );
+	}
+
+	/**
+	 * Set each element of {@code target} to {@code op} applied to the
+	 * corresponding elements of {@code a} and {@code b}. {@code target} may
+	 * be the same as {@code a} or {@code b}. {@code op} is called once per
+	 * element.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code a}, {@code b}, and {@code target} have different shapes,
+	 * 		if {@code target} is a read-only {@code ShmImg}, or if their {@code
+	 * 		DType}s are not supported
+	 */
+	public static void map( final WrappedNDArray a, final WrappedNDArray b, final WrappedNDArray target, final DoubleBinaryOperator op )
+	{
+		map( a, b, target, elementwise( op ) );
+	}
+
+	/**
+	 * Set each element of {@code target} to {@code op} applied to the
+	 * corresponding elements of all {@code sources}, in a single pass over
+	 * memory. {@code target} may be one of the {@code sources}.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code sources} and {@code target} have different shapes, if
+	 * 		{@code target} is a read-only {@code ShmImg}, or if their {@code
+	 * 		DType}s are not supported
+	 */
+	public static void map( final WrappedNDArray[] sources, final WrappedNDArray target, final NaryOp op )
+	{
+		checkWritable( target );
+		final NDArray[] ndArrays = new NDArray[ sources.length ];
+		final FlatAccess[] in = new FlatAccess[ sources.length ];
+		for ( int s = 0; s < sources.length; ++s )
+		{
+			ndArrays[ s ] = sources[ s ].ndArray();
+			in[ s ] = FlatAccess.of( ndArrays[ s ] );
+		}
+		final int size = size( target.ndArray(), ndArrays );
+		final FlatAccess out = FlatAccess.of( target.ndArray() );
+		Chunks.forEach( size, MIN_CHUNK_SIZE, ( from, to ) -> {
+			final double[][] operands = new double[ in.length ][ BLOCK_SIZE ];
+			final double[] result = new double[ BLOCK_SIZE ];
+			for ( int i = from, n; i < to; i += n )
+			{
+				n = Math.min( BLOCK_SIZE, to - i );
+				for ( int s = 0; s < in.length; ++s )
+					in[ s ].get( i, operands[ s ], n );
+				op.apply( operands, result, n );
+				out.set( i, result, n );
+			}
+		} );
+	}
+
+	/**
+	 * Wrap a {@code DoubleUnaryOperator} as a {@link UnaryOp} that calls it
+	 * once per element.
+	 */
+	public static UnaryOp elementwise( final DoubleUnaryOperator op )
+	{
+		return ( values, n ) -> {
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = op.applyAsDouble( values[ i ] );
+		};
+	}
+
+	/**
+	 * Wrap a {@code DoubleBinaryOperator} as a {@link BinaryOp} that calls it
+	 * once per element.
+	 */
+	public static BinaryOp elementwise( final DoubleBinaryOperator op )
+	{
+		return ( values, other, n ) -> {
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = op.applyAsDouble( values[ i ], other[ i ] );
+		};
+	}
+
+	/**
+	 * Fuse a binary operation with a unary operation applied to its result.
+	 * For expressions over more than two inputs, use an {@link NaryOp}.
+	 */
+	public static BinaryOp fuse( final BinaryOp op, final UnaryOp then )
+	{
+		return op.andThen( then );
+	}
+
+	/**
+	 * {@code x -> factor * x}
+	 */
+	public static UnaryOp scale( final double factor )
+	{
+		return ( values, n ) -> {
+			for ( int i = 0; i < n; ++i )
+				values[ i ] *= factor;
+		};
+	}
+
+	/**
+	 * {@code x -> x + offset}
+	 */
+	public static UnaryOp offset( final double offset )
+	{
+		return ( values, n ) -> {
+			for ( int i = 0; i < n; ++i )
+				values[ i ] += offset;
+		};
+	}
+
+	/**
+	 * {@code x -> min(max(x, min), max)}
+	 */
+	public static UnaryOp clip( final double min, final double max )
+	{
+		return ( values, n ) -> {
+			for ( int i = 0; i < n; ++i )
+			{
+				final double x = values[ i ];
+				values[ i ] = x < min ? min : x > max ? max : x;
+			}
+		};
+	}
+
+	/**
+	 * {@code x -> x > threshold ? 1 : 0}
+	 */
+	public static UnaryOp threshold( final double threshold )
+	{
+		return ( values, n ) -> {
+			for ( int i = 0; i < n; ++i )
+				values[ i ] = values[ i ] > threshold ? 1 : 0;
+		};
+	}
+
+	/**
+	 * {@code (x, y) -> x + y}
+	 */
+	public static BinaryOp add()
+	{
+		return ( values, other, n ) -> {
+			for ( int i = 0; i < n; ++i )
+				values[ i ] += other[ i ];
+		};
+	}
+
+	/**
+	 * {@code (x, y) -> x - y}
+	 */
+	public static BinaryOp subtract()
+	{
+		return ( values, other, n ) -> {
+			for ( int i = 0; i < n; ++i )
+				values[ i ] -= other[ i ];
+		};
+	}
+
+	/**
+	 * {@code (x, y) -> x * y}
+	 */
+	public static BinaryOp multiply()
+	{
+		return ( values, other, n ) -> {
+			for ( int i = 0; i < n; ++i )
+				values[ i ] *= other[ i ];
+		};
+	}
+
+	/**
+	 * {@code (x, mask) -> mask != 0 ? x : 0}
+	 */
+	public static BinaryOp mask()
+	{
+		return ( values, mask, n ) -> {
+			for ( int i = 0; i < n; ++i )
+				if ( mask[ i ] == 0 )
+					values[ i ] = 0;
+		};
+	}
+
+	private static void checkWritable( final WrappedNDArray target )
+	{
+		if ( target instanceof ShmImg && ( ( ShmImg< ? > ) target ).isReadOnly() )
+			throw new IllegalArgumentException( "target is a read-only ShmImg" );
+	}
+
+	private static int size( final NDArray target, final NDArray... sources )
+	{
+		final long[] shape = target.shape().toLongArray( F_ORDER );
+		for ( final NDArray source : sources )
+			if ( !Arrays.equals( shape, source.shape().toLongArray( F_ORDER ) ) )
+				throw new IllegalArgumentException( "NDArrays have different shapes" );
+		return ( int ) Intervals.numElements( shape );
+	}
+}
@@ -0,0 +1,683 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apposed.appose.NDArray;
+import org.apposed.appose.NDArray.DType;
+
+import net.imglib2.parallel.Parallelization;
+import net.imglib2.type.NativeType;
+
+/**
+ * Keeps many {@link ShmImg}s within a shared memory budget, by spilling idle
+ * ones to compressed files and restoring them on demand.
+ * <p>
+ * {@link #register(ShmImg) Registered} images are accessed through their
+ * {@link Entry}. {@link Entry#acquire()} restores the {@code ShmImg} into a new
+ * shared memory segment if it was spilled, and returns a {@link Lease} that
+ * prevents it from being spilled until the lease is closed. A {@code Lease} is
+ * a {@link WrappedNDArray}, so it can be put into Appose task inputs, and
+ * closed when the task has finished:
+ * <pre>{@code
+ * try ( ShmTiering.Lease< FloatType > lease = entry.acquire() ) {
+ *     inputs.put( "image", lease.ndArray() );
+ *     service.task( script, inputs ).waitFor();
+ * }
+ * }</pre>
+ * <p>
+ * Entries are spilled when they have been idle for longer than a given time
+ * (see {@link #evictIdle(long, TimeUnit)}), and least-recently accessed entries
+ * are spilled when restoring or registering an image would exceed the budget.
+ * Spilling closes the {@code NDArray}, so a {@code ShmImg} or {@code NDArray}
+ * obtained from a {@code Lease} must not be used after the lease is closed.
+ * <p>
+ * Spill files are compressed with {@code Deflater} in independent blocks,
+ * which are compressed and decompressed in parallel. Compression and file I/O
+ * are done without holding the {@code ShmTiering} lock, so spilling or
+ * restoring one entry only blocks threads that access the same entry.
+ */
+public class ShmTiering implements AutoCloseable
+{
+	private static final int DEFAULT_BLOCK_SIZE = 1 << 22;
+
+	private final Path directory;
+
+	private final long budget;
+
+	private final int blockSize;
+
+	private final int level;
+
+	private final List< Entry< ? > > entries = new ArrayList<>();
+
+	/**
+	 * Create a {@code ShmTiering} that spills to files in {@code directory}
+	 * and keeps at most {@code budget} bytes of shared memory resident.
+	 *
+	 * @param directory
+	 * 		directory for spill files
+	 * @param budget
+	 * 		maximum number of bytes of resident shared memory
+	 */
+	public ShmTiering( final Path directory, final long budget )
+	{
+		this( directory, budget, DEFAULT_BLOCK_SIZE, Deflater.BEST_SPEED );
+	}
+
+	/**
+	 * Create a {@code ShmTiering} that spills to files in {@code directory}
+	 * and keeps at most {@code budget} bytes of shared memory resident.
+	 *
+	 * @param directory
+	 * 		directory for spill files
+	 * @param budget
+	 * 		maximum number of bytes of resident shared memory
+	 * @param blockSize
+	 * 		size in bytes of independently compressed blocks
+	 * @param level
+	 * 		{@code Deflater} compression level
+	 */
+	public ShmTiering( final Path directory, final long budget, final int blockSize, final int level )
+	{
+		if ( blockSize <= 0 )
+			throw new IllegalArgumentException( "blockSize must be positive" );
+		this.directory = directory;
+		this.budget = budget;
+		this.blockSize = blockSize;
+		this.level = level;
+	}
+
+	/**
+	 * Register {@code img} with this {@code ShmTiering}. The returned {@link
+	 * Entry} takes ownership of {@code img}: it will be closed when it is
+	 * spilled or when the {@code Entry} is closed.
+	 *
+	 * @param img
+	 * 		the image to manage
+	 * @param <T>
+	 * 		pixel type
+	 *
+	 * @return the {@code Entry} through which to access {@code img}
+	 */
+	public < T extends NativeType< T > > Entry< T > register( final ShmImg< T > img )
+	{
+		final Entry< T > entry = new Entry<>( img );
+		final List< Entry< ? > > victims;
+		synchronized ( this )
+		{
+			victims = selectVictims( entry.bytes, entry );
+			entries.add( entry );
+		}
+		spillAll( victims );
+		return entry;
+	}
+
+	/**
+	 * Spill all entries that have not been accessed for longer than {@code
+	 * maxIdle}, and have no open {@link Lease}.
+	 *
+	 * @throws UncheckedIOException
+	 * 		if writing a spill file fails
+	 */
+	public void evictIdle( final long maxIdle, final TimeUnit unit )
+	{
+		final List< Entry< ? > > victims = new ArrayList<>();
+		synchronized ( this )
+		{
+			final long now = System.nanoTime();
+			final long maxIdleNanos = unit.toNanos( maxIdle );
+			for ( final Entry< ? > entry : entries )
+			{
+				if ( entry.isEvictable() && now - entry.lastAccess > maxIdleNanos )
+				{
+					entry.state = State.SPILLING;
+					victims.add( entry );
+				}
+			}
+		}
+		spillAll( victims );
+	}
+
+	/**
+	 * Get the number of bytes of shared memory currently held by resident
+	 * entries.
+	 */
+	public synchronized long residentBytes()
+	{
+		long bytes = 0;
+		for ( final Entry< ? > entry : entries )
+			if ( entry.img != null )
+				bytes += entry.bytes;
+		return bytes;
+	}
+
+	/**
+	 * Close all entries, releasing their shared memory and deleting their
+	 * spill files.
+	 */
+	@Override
+	public void close()
+	{
+		final List< Entry< ? > > all;
+		synchronized ( this )
+		{
+			all = new ArrayList<>( entries );
+		}
+		for ( final Entry< ? > entry : all )
+			entry.close();
+	}
+
+	/**
+	 * Select least-recently accessed entries (except {@code keep}) to spill,
+	 * until {@code bytes} more fit into the budget, or nothing more can be
+	 * spilled. The selected entries are marked as spilling, and must be
+	 * passed to {@link #spillAll(List)}. Must be called while holding the
+	 * lock.
+	 */
+	private List< Entry< ? > > selectVictims( final long bytes, final Entry< ? > keep )
+	{
+		final List< Entry< ? > > victims = new ArrayList<>();
+		long committed = 0;
+		for ( final Entry< ? > entry : entries )
+			if ( entry.state == State.RESIDENT || entry.state == State.RESTORING )
+				committed += entry.bytes;
+		while ( committed + bytes > budget )
+		{
+			Entry< ? > lru = null;
+			for ( final Entry< ? > entry : entries )
+				if ( entry != keep && entry.isEvictable() && ( lru == null || entry.lastAccess < lru.lastAccess ) )
+					lru = entry;
+			if ( lru == null )
+				break;
+			lru.state = State.SPILLING;
+			victims.add( lru );
+			committed -= lru.bytes;
+		}
+		return victims;
+	}
+
+	/**
+	 * Spill the given entries, which were marked as spilling. This does the
+	 * compression and file I/O without holding the lock. If spilling fails,
+	 * the remaining entries are marked as resident again.
+	 *
+	 * @throws UncheckedIOException
+	 * 		if writing a spill file fails
+	 */
+	private void spillAll( final List< Entry< ? > > victims )
+	{
+		for ( int i = 0; i < victims.size(); ++i )
+		{
+			try
+			{
+				victims.get( i ).spill();
+			}
+			catch ( final RuntimeException e )
+			{
+				synchronized ( this )
+				{
+					for ( int j = i + 1; j < victims.size(); ++j )
+						victims.get( j ).state = State.RESIDENT;
+					notifyAll();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Whether an {@link Entry} is in shared memory, in a spill file, or
+	 * moving between them. Spilling and restoring is done without holding
+	 * the lock, and other threads wait for entries in transition.
+	 */
+	private enum State
+	{
+		RESIDENT, SPILLING, SPILLED, RESTORING
+	}
+
+	/**
+	 * A {@link ShmImg} managed by a {@link ShmTiering}, which is either
+	 * resident in shared memory or spilled to a compressed file.
+	 *
+	 * @param <T>
+	 * 		pixel type
+	 */
+	public class Entry< T extends NativeType< T > > implements AutoCloseable
+	{
+		private final T type;
+
+		private final DType dType;
+
+		private final NDArray.Shape shape;
+
+		private final long bytes;
+
+		private ShmImg< T > img;
+
+		private Path file;
+
+		private long lastAccess;
+
+		private int pins;
+
+		private State state = State.RESIDENT;
+
+		private Entry( final ShmImg< T > img )
+		{
+			this.img = img;
+			this.type = img.getType().createVariable();
+			this.dType = img.ndArray().dType();
+			this.shape = img.ndArray().shape();
+			this.bytes = img.ndArray().buffer().remaining();
+			this.lastAccess = System.nanoTime();
+		}
+
+		/**
+		 * Restore the {@code ShmImg} into shared memory if it was spilled, and
+		 * prevent it from being spilled until the returned {@link Lease} is
+		 * closed.
+		 *
+		 * @throws UncheckedIOException
+		 * 		if reading the spill file fails
+		 */
+		public Lease< T > acquire()
+		{
+			final List< Entry< ? > > victims;
+			synchronized ( ShmTiering.this )
+			{
+				awaitStable();
+				if ( !entries.contains( this ) )
+					throw new IllegalStateException( "entry is closed" );
+				lastAccess = System.nanoTime();
+				++pins;
+				if ( state == State.RESIDENT )
+					return new Lease<>( this, img );
+				state = State.RESTORING;
+				victims = selectVictims( bytes, this );
+			}
+			try
+			{
+				spillAll( victims );
+				final ShmImg< T > restored = restore();
+				synchronized ( ShmTiering.this )
+				{
+					img = restored;
+					deleteFile();
+					state = State.RESIDENT;
+					ShmTiering.this.notifyAll();
+					return new Lease<>( this, img );
+				}
+			}
+			catch ( final RuntimeException e )
+			{
+				synchronized ( ShmTiering.this )
+				{
+					--pins;
+					state = State.SPILLED;
+					ShmTiering.this.notifyAll();
+				}
+				throw e;
+			}
+		}
+
+		private void release()
+		{
+			synchronized ( ShmTiering.this )
+			{
+				--pins;
+				lastAccess = System.nanoTime();
+			}
+		}
+
+		/**
+		 * Whether the {@code ShmImg} is currently in shared memory.
+		 */
+		public boolean isResident()
+		{
+			synchronized ( ShmTiering.this )
+			{
+				return img != null;
+			}
+		}
+
+		/**
+		 * Remove this entry from the {@code ShmTiering}, release its shared
+		 * memory, and delete its spill file. Open {@link Lease}s must not be
+		 * used afterwards.
+		 */
+		@Override
+		public void close()
+		{
+			synchronized ( ShmTiering.this )
+			{
+				awaitStable();
+				entries.remove( this );
+				if ( img != null )
+				{
+					img.close();
+					img = null;
+				}
+				deleteFile();
+			}
+		}
+
+		private boolean isEvictable()
+		{
+			return state == State.RESIDENT && pins == 0;
+		}
+
+		/**
+		 * Wait until this entry is not being spilled or restored by another
+		 * thread. Must be called while holding the lock.
+		 */
+		private void awaitStable()
+		{
+			boolean interrupted = false;
+			while ( state == State.SPILLING || state == State.RESTORING )
+			{
+				try
+				{
+					ShmTiering.this.wait();
+				}
+				catch ( final InterruptedException e )
+				{
+					interrupted = true;
+				}
+			}
+			if ( interrupted )
+				Thread.currentThread().interrupt();
+		}
+
+		/**
+		 * Compress the {@code ShmImg} into a spill file and release its shared
+		 * memory. Called without holding the lock, while this entry is marked
+		 * as spilling. On failure, the entry is marked as resident again.
+		 */
+		private void spill()
+		{
+			final ByteBuffer buffer = img.ndArray().buffer();
+			Path spillFile = null;
+			try
+			{
+				spillFile = Files.createTempFile( directory, "shm-", ".spill" );
+				try ( final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( spillFile ) ) ) )
+				{
+					final int numBlocks = numBlocks();
+					out.writeInt( blockSize );
+					out.writeInt( numBlocks );
+					final int batchSize = batchSize();
+					for ( int b = 0; b < numBlocks; b += batchSize )
+					{
+						final List< Integer > batch = blocks( b, Math.min( numBlocks, b + batchSize ) );
+						final List< byte[] > compressed = new ArrayList<>( batch.size() );
+						for ( int i = 0; i < batch.size(); ++i )
+							compressed.add( null );
+						Parallelization.getTaskExecutor().forEach( batch, i -> compressed.set( i - batch.get( 0 ), compress( buffer, i ) ) );
+						for ( final byte[] data : compressed )
+						{
+							out.writeInt( data.length );
+							out.write( data );
+						}
+					}
+				}
+			}
+			catch ( final IOException | RuntimeException e )
+			{
+				deleteQuietly( spillFile );
+				synchronized ( ShmTiering.this )
+				{
+					state = State.RESIDENT;
+					ShmTiering.this.notifyAll();
+				}
+				throw e instanceof IOException ? new UncheckedIOException( ( IOException ) e ) : ( RuntimeException ) e;
+			}
+			synchronized ( ShmTiering.this )
+			{
+				file = spillFile;
+				img.close();
+				img = null;
+				state = State.SPILLED;
+				ShmTiering.this.notifyAll();
+			}
+		}
+
+		/**
+		 * Decompress the spill file into a new {@code ShmImg}. Called without
+		 * holding the lock, while this entry is marked as restoring.
+		 */
+		private ShmImg< T > restore()
+		{
+			final NDArray ndArray = new NDArray( dType, shape );
+			try
+			{
+				final ByteBuffer buffer = ndArray.buffer();
+				try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ) ) ) )
+				{
+					if ( in.readInt() != blockSize || in.readInt() != numBlocks() )
+						throw new IOException( "Corrupt spill file: " + file );
+					final int numBlocks = numBlocks();
+					final int batchSize = batchSize();
+					for ( int b = 0; b < numBlocks; b += batchSize )
+					{
+						final List< Integer > batch = blocks( b, Math.min( numBlocks, b + batchSize ) );
+						final List< byte[] > compressed = new ArrayList<>( batch.size() );
+						for ( int i = 0; i < batch.size(); ++i )
+						{
+							final byte[] data = new byte[ in.readInt() ];
+							in.readFully( data );
+							compressed.add( data );
+						}
+						Parallelization.getTaskExecutor().forEach( batch, i -> decompress( compressed.get( i - batch.get( 0 ) ), buffer, i ) );
+					}
+				}
+				return new ShmImg<>( type.createVariable(), ndArray );
+			}
+			catch ( final IOException e )
+			{
+				ndArray.close();
+				throw new UncheckedIOException( e );
+			}
+			catch ( final RuntimeException e )
+			{
+				ndArray.close();
+				throw e;
+			}
+		}
+
+		private void deleteFile()
+		{
+			deleteQuietly( file );
+			file = null;
+		}
+
+		private int numBlocks()
+		{
+			return ( int ) ( ( bytes + blockSize - 1 ) / blockSize );
+		}
+
+		private int batchSize()
+		{
+			return Math.max( 1, 2 * Parallelization.getTaskExecutor().suggestNumberOfTasks() );
+		}
+
+		private byte[] compress( final ByteBuffer buffer, final int block )
+		{
+			final ByteBuffer src = buffer.duplicate();
+			src.position( block * blockSize );
+			final byte[] input = new byte[ ( int ) Math.min( blockSize, bytes - ( long ) block * blockSize ) ];
+			src.get( input );
+
+			final Deflater deflater = new Deflater( level );
+			try
+			{
+				deflater.setInput( input );
+				deflater.finish();
+				final ByteArrayOutputStream out = new ByteArrayOutputStream( input.length / 2 + 64 );
+				final byte[] chunk = new byte[ 1 << 16 ];
+				while ( !deflater.finished() )
+					out.write( chunk, 0, deflater.deflate( chunk ) );
+				return out.toByteArray();
+			}
+			finally
+			{
+				deflater.end();
+			}
+		}
+
+		private void decompress( final byte[] data, final ByteBuffer buffer, final int block )
+		{
+			final byte[] output = new byte[ ( int ) Math.min( blockSize, bytes - ( long ) block * blockSize ) ];
+			final Inflater inflater = new Inflater();
+			try
+			{
+				inflater.setInput( data );
+				int offset = 0;
+				while ( offset < output.length )
+				{
+					final int n = inflater.inflate( output, offset, output.length - offset );
+					if ( n == 0 && ( inflater.finished() || inflater.needsInput() ) )
+						throw new UncheckedIOException( new IOException( "Corrupt spill file: " + file ) );
+					offset += n;
+				}
+			}
+			catch ( final DataFormatException e )
+			{
+				throw new UncheckedIOException( new IOException( "Corrupt spill file: " + file, e ) );
+			}
+			finally
+			{
+				inflater.end();
+			}
+			final ByteBuffer dst = buffer.duplicate();
+			dst.position( block * blockSize );
+			dst.put( output );
+		}
+	}
+
+	/**
+	 * A pinned {@link ShmImg} of an {@link Entry}. The {@code ShmImg} is not
+	 * spilled until the {@code Lease} is {@link #close() closed}. Closing the
+	 * {@code Lease} does not close the {@code ShmImg}.
+	 *
+	 * @param <T>
+	 * 		pixel type
+	 */
+	public static class Lease< T extends NativeType< T > > implements WrappedNDArray
+	{
+		private final ShmTiering.Entry< T > entry;
+
+		private final ShmImg< T > img;
+
+		private boolean closed;
+
+		private Lease( final ShmTiering.Entry< T > entry, final ShmImg< T > img )
+		{
+			this.entry = entry;
+			this.img = img;
+		}
+
+		/**
+		 * Get the pinned {@code ShmImg}.
+		 */
+		public ShmImg< T > get()
+		{
+			checkOpen();
+			return img;
+		}
+
+		@Override
+		public NDArray ndArray()
+		{
+			checkOpen();
+			return img.ndArray();
+		}
+
+		/**
+		 * Allow the {@code ShmImg} to be spilled again. Closing a {@code
+		 * Lease} more than once has no further effect.
+		 */
+		@Override
+		public void close()
+		{
+			synchronized ( this )
+			{
+				if ( closed )
+					return;
+				closed = true;
+			}
+			entry.release();
+		}
+
+		private synchronized void checkOpen()
+		{
+			if ( closed )
+				throw new IllegalStateException( "lease is closed" );
+		}
+	}
+
+	private static void deleteQuietly( final Path file )
+	{
+		if ( file != null )
+		{
+			try
+			{
+				Files.deleteIfExists( file );
+			}
+			catch ( final IOException e )
+			{
+				// NB: A stale spill file is harmless.
+			}
+		}
+	}
+
+	private static List< Integer > blocks( final int from, final int to )
+	{
+		final List< Integer > blocks = new ArrayList<>( to - from );
+		for ( int i = from; i < to; ++i )
+			blocks.add( i );
+		return blocks;
+	}
+}
@@ -0,0 +1,260 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.appose;
+
+import static org.apposed.appose.NDArray.Shape.Order.F_ORDER;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+
+import org.apposed.appose.NDArray;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.BooleanAccess;
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.img.basictypeaccess.DataAccess;
+import net.imglib2.img.basictypeaccess.DoubleAccess;
+import net.imglib2.img.basictypeaccess.FloatAccess;
+import net.imglib2.img.basictypeaccess.IntAccess;
+import net.imglib2.img.basictypeaccess.LongAccess;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.NativeTypeFactory;
+import net.imglib2.type.PrimitiveType;
+
+/**
+ * Creates the {@code ArrayImg}s wrapped by {@link ShmImg}.
+ * <p>
+ * This implementation (Java 22 and newer) uses accesses backed by a {@link
+ * MemorySegment} over the shared memory. Elements are addressed with {@code
+ * long} offsets in native byte order, without the per-element position and
+ * byte-order handling of NIO buffers.
+ * <p>
+ * The segment is created from the {@code ByteBuffer} of the {@code NDArray}
+ * with {@code MemorySegment.ofBuffer}, so it does not lift the size limit of
+ * NIO buffers: an image must still be smaller than 2<sup>31</sup> bytes (for
+ * example, at most 512M {@code FLOAT32} elements), not 2<sup>31</sup>
+ * elements.
+ */
+class ShmAccesses
+{
+	static < T extends NativeType< T > > ArrayImg< T, ? > asArrayImg( final NDArray ndArray, final T type )
+	{
+		NDArrays.checkType( ndArray.dType(), type );
+		return asArrayImg( ndArray.buffer(), ndArray.shape().toLongArray( F_ORDER ), type );
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	static < T extends NativeType< T >, A extends DataAccess > ArrayImg< T, A > asArrayImg( final ByteBuffer buffer, final long[] dimensions, final T type )
+	{
+		final NativeTypeFactory< T, ? super A > typeFactory = ( NativeTypeFactory ) type.getNativeTypeFactory();
+		final A data = ( A ) access( typeFactory.getPrimitiveType(), MemorySegment.ofBuffer( buffer ) );
+		final ArrayImg< T, A > img = new ArrayImg<>( data, dimensions, type.getEntitiesPerPixel() );
+		img.setLinkedType( typeFactory.createLinkedType( img ) );
+		return img;
+	}
+
+	private static Object access( final PrimitiveType primitiveType, final MemorySegment segment )
+	{
+		switch ( primitiveType )
+		{
+		case BOOLEAN:
+			return new BooleanSegmentAccess( segment );
+		case BYTE:
+			return new ByteSegmentAccess( segment );
+		case SHORT:
+			return new ShortSegmentAccess( segment );
+		case INT:
+			return new IntSegmentAccess( segment );
+		case LONG:
+			return new LongSegmentAccess( segment );
+		case FLOAT:
+			return new FloatSegmentAccess( segment );
+		case DOUBLE:
+			return new DoubleSegmentAccess( segment );
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	static final class BooleanSegmentAccess implements BooleanAccess
+	{
+		private final MemorySegment segment;
+
+		BooleanSegmentAccess( final MemorySegment segment )
+		{
+			this.segment = segment;
+		}
+
+		@Override
+		public boolean getValue( final int index )
+		{
+			return segment.get( ValueLayout.JAVA_BYTE, index ) != 0;
+		}
+
+		@Override
+		public void setValue( final int index, final boolean value )
+		{
+			segment.set( ValueLayout.JAVA_BYTE, index, value ? ( byte ) 1 : ( byte ) 0 );
+		}
+	}
+
+	static final class ByteSegmentAccess implements ByteAccess
+	{
+		private final MemorySegment segment;
+
+		ByteSegmentAccess( final MemorySegment segment )
+		{
+			this.segment = segment;
+		}
+
+		@Override
+		public byte getValue( final int index )
+		{
+			return segment.get( ValueLayout.JAVA_BYTE, index );
+		}
+
+		@Override
+		public void setValue( final int index, final byte value )
+		{
+			segment.set( ValueLayout.JAVA_BYTE, index, value );
+		}
+	}
+
+	static final class ShortSegmentAccess implements ShortAccess
+	{
+		private final MemorySegment segment;
+
+		ShortSegmentAccess( final MemorySegment segment )
+		{
+			this.segment = segment;
+		}
+
+		@Override
+		public short getValue( final int index )
+		{
+			return segment.getAtIndex( ValueLayout.JAVA_SHORT, index );
+		}
+
+		@Override
+		public void setValue( final int index, final short value )
+		{
+			segment.setAtIndex( ValueLayout.JAVA_SHORT, index, value );
+		}
+	}
+
+	static final class IntSegmentAccess implements IntAccess
+	{
+		private final MemorySegment segment;
+
+		IntSegmentAccess( final MemorySegment segment )
+		{
+			this.segment = segment;
+		}
+
+		@Override
+		public int getValue( final int index )
+		{
+			return segment.getAtIndex( ValueLayout.JAVA_INT, index );
+		}
+
+		@Override
+		public void setValue( final int index, final int value )
+		{
+			segment.setAtIndex( ValueLayout.JAVA_INT, index, value );
+		}
+	}
+
+	static final class LongSegmentAccess implements LongAccess
+	{
+		private final MemorySegment segment;
+
+		LongSegmentAccess( final MemorySegment segment )
+		{
+			this.segment = segment;
+		}
+
+		@Override
+		public long getValue( final int index )
+		{
+			return segment.getAtIndex( ValueLayout.JAVA_LONG, index );
+		}
+
+		@Override
+		public void setValue( final int index, final long value )
+		{
+			segment.setAtIndex( ValueLayout.JAVA_LONG, index, value );
+		}
+	}
+
+	static final class FloatSegmentAccess implements FloatAccess
+	{
+		private final MemorySegment segment;
+
+		FloatSegmentAccess( final MemorySegment segment )
+		{
+			this.segment = segment;
+		}
+
+		@Override
+		public float getValue( final int index )
+		{
+			return segment.getAtIndex( ValueLayout.JAVA_FLOAT, index );
+		}
+
+		@Override
+		public void setValue( final int index, final float value )
+		{
+			segment.setAtIndex( ValueLayout.JAVA_FLOAT, index, value );
+		}
+	}
+
+	static final class DoubleSegmentAccess implements DoubleAccess
+	{
+		private final MemorySegment segment;
+
+		DoubleSegmentAccess( final MemorySegment segment )
+		{
+			this.segment = segment;
+		}
+
+		@Override
+		public double getValue( final int index )
+		{
+			return segment.getAtIndex( ValueLayout.JAVA_DOUBLE, index );
+		}
+
+		@Override
+		public void setValue( final int index, final double value )
+		{
+			segment.setAtIndex( ValueLayout.JAVA_DOUBLE, index, value );
+		}
+	}
+}
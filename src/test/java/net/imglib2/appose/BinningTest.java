@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.appose;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests {@link Binning}.
+ */
+public class BinningTest
+{
+	private static final float[] DATA = {
+			0, 1, 2, 3, 4,
+			5, 6, 7, 8, 9,
+			10, 11, 12, 13, 14 };
+
+	// 2x2 bins, with partial bins at the right and bottom border
+	private static final float[] BINNED = {
+			3, 5, 6.5f,
+			10.5f, 12.5f, 14 };
+
+	@Test
+	public void binShmImg()
+	{
+		try ( final ShmImg< FloatType > img = ShmImg.copyOf( ArrayImgs.floats( DATA, 5, 3 ) );
+				final ShmImg< FloatType > binned = Binning.bin( img, 2, 2 ) )
+		{
+			assertArrayEquals( new long[] { 3, 2 }, binned.dimensionsAsLongArray() );
+			assertValues( BINNED, binned );
+		}
+	}
+
+	@Test
+	public void binArrayImg()
+	{
+		try ( final ShmImg< FloatType > binned = Binning.bin( ArrayImgs.floats( DATA, 5, 3 ), 2, 2 ) )
+		{
+			assertArrayEquals( new long[] { 3, 2 }, binned.dimensionsAsLongArray() );
+			assertValues( BINNED, binned );
+		}
+	}
+
+	@Test
+	public void binRoundsIntegers()
+	{
+		final Img< UnsignedByteType > img = ArrayImgs.unsignedBytes( new byte[] { 1, 2, ( byte ) 200, ( byte ) 255 }, 4 );
+		try ( final ShmImg< UnsignedByteType > copy = ShmImg.copyOf( img );
+				final ShmImg< UnsignedByteType > binned = Binning.bin( copy, 2 ) )
+		{
+			assertEquals( 2, binned.firstElement().get() );
+			assertEquals( 228, binned.getAt( 1 ).get() );
+		}
+	}
+
+	@Test
+	public void upsample()
+	{
+		final float[] expected = {
+				3, 3, 5, 5, 6.5f,
+				3, 3, 5, 5, 6.5f,
+				10.5f, 10.5f, 12.5f, 12.5f, 14 };
+		try ( final ShmImg< FloatType > binned = Binning.bin( ArrayImgs.floats( DATA, 5, 3 ), 2, 2 );
+				final ShmImg< FloatType > upsampled = Binning.upsample( binned, new int[] { 2, 2 }, 5, 3 ) )
+		{
+			assertArrayEquals( new long[] { 5, 3 }, upsampled.dimensionsAsLongArray() );
+			assertValues( expected, upsampled );
+		}
+		try ( final ShmImg< FloatType > upsampled = Binning.upsample( ArrayImgs.floats( BINNED, 3, 2 ), 2, 2 ) )
+		{
+			assertArrayEquals( new long[] { 6, 4 }, upsampled.dimensionsAsLongArray() );
+			assertEquals( 6.5f, upsampled.getAt( 5, 0 ).get() );
+			assertEquals( 14f, upsampled.getAt( 5, 3 ).get() );
+		}
+	}
+
+	@Test
+	public void upsampleShmImgMatchesGeneric()
+	{
+		// ShmImg sources take the bulk copy path, ArrayImg sources do not
+		final Img< UnsignedShortType > source = ArrayImgs.unsignedShorts( new short[] { 1, 2, 3, 4, 5, 6 }, 3, 2 );
+		try ( final ShmImg< UnsignedShortType > shmSource = ShmImg.copyOf( source );
+				final ShmImg< UnsignedShortType > expected = Binning.upsample( source, new int[] { 3, 2 }, 8, 5 );
+				final ShmImg< UnsignedShortType > actual = Binning.upsample( shmSource, new int[] { 3, 2 }, 8, 5 ) )
+		{
+			final Cursor< UnsignedShortType > e = expected.cursor();
+			final Cursor< UnsignedShortType > a = actual.cursor();
+			while ( e.hasNext() )
+				assertEquals( e.next().get(), a.next().get() );
+			assertEquals( 3, actual.getAt( 7, 0 ).get() );
+			assertEquals( 6, actual.getAt( 7, 4 ).get() );
+		}
+	}
+
+	private static void assertValues( final float[] expected, final RandomAccessibleInterval< FloatType > actual )
+	{
+		final Cursor< FloatType > c = actual.cursor();
+		for ( final float e : expected )
+			assertEquals( e, c.next().get(), 1e-6 );
+	}
+}
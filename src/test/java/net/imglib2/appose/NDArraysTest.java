@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.appose;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apposed.appose.NDArray;
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.view.Views;
+
+/**
+ * Tests {@link NDArrays} methods that do not need a worker process.
+ */
+public class NDArraysTest
+{
+	@Test
+	public void stackUnstack()
+	{
+		final List< Img< IntType > > imgs = Arrays.asList(
+				ArrayImgs.ints( 4, 3 ),
+				ArrayImgs.ints( 4, 3 ),
+				ArrayImgs.ints( 4, 3 ) );
+		for ( int i = 0; i < imgs.size(); ++i )
+		{
+			int j = 0;
+			for ( final IntType t : imgs.get( i ) )
+				t.set( 100 * i + j++ );
+		}
+
+		try ( final NDArray batch = NDArrays.stack( imgs ) )
+		{
+			assertArrayEquals( new long[] { 4, 3, 3 }, batch.shape().toLongArray( NDArray.Shape.Order.F_ORDER ) );
+
+			final List< ArrayImg< IntType, ? > > slots = NDArrays.unstack( batch );
+			assertEquals( imgs.size(), slots.size() );
+			for ( int i = 0; i < imgs.size(); ++i )
+			{
+				assertArrayEquals( new long[] { 4, 3 }, slots.get( i ).dimensionsAsLongArray() );
+				final Cursor< IntType > expected = imgs.get( i ).cursor();
+				final Cursor< IntType > actual = slots.get( i ).cursor();
+				while ( expected.hasNext() )
+					assertEquals( expected.next().get(), actual.next().get() );
+			}
+
+			// slots are views on the batch buffer
+			NDArrays.slot( batch, 1 ).firstElement().set( -1 );
+			assertEquals( -1, batch.buffer().order( ByteOrder.nativeOrder() ).asIntBuffer().get( 12 ) );
+		}
+	}
+
+	@Test
+	public void asNDArraysDeduplicates()
+	{
+		try ( final ShmImg< IntType > shm = new ShmImg<>( new IntType(), 4, 3 ) )
+		{
+			final Img< IntType > img = ArrayImgs.ints( 4, 3 );
+			final Map< String, RandomAccessibleInterval< IntType > > images = new LinkedHashMap<>();
+			images.put( "shm", shm );
+			images.put( "translated", Views.translate( shm, 10, 20 ) );
+			images.put( "interval", Views.interval( shm, shm ) );
+			images.put( "img1", img );
+			images.put( "img2", img );
+			images.put( "crop1", Views.interval( shm, new long[] { 1, 1 }, new long[] { 2, 2 } ) );
+			images.put( "crop2", Views.interval( shm, new long[] { 1, 1 }, new long[] { 2, 2 } ) );
+
+			try ( final NDArrays.Inputs inputs = NDArrays.asNDArrays( images ) )
+			{
+				final Map< String, Object > map = inputs.inputs();
+				assertEquals( images.keySet(), map.keySet() );
+				assertSame( shm.ndArray(), map.get( "shm" ) );
+				assertSame( shm.ndArray(), map.get( "translated" ) );
+				assertSame( shm.ndArray(), map.get( "interval" ) );
+				assertSame( map.get( "img1" ), map.get( "img2" ) );
+				assertNotSame( shm.ndArray(), map.get( "img1" ) );
+				assertSame( map.get( "crop1" ), map.get( "crop2" ) );
+				assertArrayEquals( new long[] { 2, 2 }, ( ( NDArray ) map.get( "crop1" ) ).shape().toLongArray( NDArray.Shape.Order.F_ORDER ) );
+			}
+		}
+	}
+
+	@Test
+	public void copyCoversTail()
+	{
+		// several chunks, a partial last chunk, and non-zero positions
+		final int size = 2 * NDArrays.COPY_CHUNK_SIZE + 13;
+		final ByteBuffer source = ByteBuffer.allocate( size + 5 );
+		for ( int i = 0; i < source.capacity(); ++i )
+			source.put( i, ( byte ) ( i * 31 + 7 ) );
+		source.position( 5 );
+		final ByteBuffer target = ByteBuffer.allocate( size + 3 );
+		target.position( 3 );
+
+		NDArrays.copy( source, target );
+
+		assertEquals( 5, source.position() );
+		assertEquals( 3, target.position() );
+		for ( int i = 0; i < size; ++i )
+			assertEquals( source.get( 5 + i ), target.get( 3 + i ), "byte " + i );
+	}
+}
@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.appose;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * Tests reading and writing {@code .npy} files with {@link Npy}.
+ */
+public class NpyTest
+{
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void roundTrip() throws IOException
+	{
+		final Img< UnsignedShortType > img = ArrayImgs.unsignedShorts( 5, 4, 3 );
+		int i = 0;
+		for ( final UnsignedShortType t : img )
+			t.set( i++ );
+
+		final Path path = tempDir.resolve( "img.npy" );
+		Npy.write( img, path );
+
+		final byte[] bytes = Files.readAllBytes( path );
+		assertEquals( 0, ( 10 + ( bytes[ 8 ] & 0xff ) + ( ( bytes[ 9 ] & 0xff ) << 8 ) ) % 64 );
+		final String header = new String( bytes, 10, 64 - 10, StandardCharsets.ISO_8859_1 );
+		assertTrue( header.contains( "'shape': (3, 4, 5)" ), header );
+		assertEquals( 64 + 2 * 60, bytes.length );
+
+		try ( final ShmImg< UnsignedShortType > read = Npy.readImg( path ) )
+		{
+			assertArrayEquals( img.dimensionsAsLongArray(), read.dimensionsAsLongArray() );
+			final Cursor< UnsignedShortType > expected = img.cursor();
+			final Cursor< UnsignedShortType > actual = read.cursor();
+			while ( expected.hasNext() )
+				assertEquals( expected.next().get(), actual.next().get() );
+		}
+	}
+
+	@Test
+	public void readFortranOrder() throws IOException
+	{
+		// numpy array x with shape (3, 4) and x[i, j] = 10 * i + j
+		final ByteBuffer data = ByteBuffer.allocate( 2 * 12 ).order( ByteOrder.nativeOrder() );
+		for ( int j = 0; j < 4; ++j )
+			for ( int i = 0; i < 3; ++i )
+				data.putShort( ( short ) ( 10 * i + j ) );
+		final Path path = tempDir.resolve( "fortran.npy" );
+		writeNpy( path, "'fortran_order': True, 'shape': (3, 4)", data );
+
+		try ( final ShmImg< UnsignedShortType > read = Npy.readImg( path ) )
+		{
+			assertArrayEquals( new long[] { 4, 3 }, read.dimensionsAsLongArray() );
+			for ( int i = 0; i < 3; ++i )
+				for ( int j = 0; j < 4; ++j )
+					assertEquals( 10 * i + j, read.getAt( j, i ).get() );
+
+			// written back in C order, with the same numpy shape
+			final Path copy = tempDir.resolve( "copy.npy" );
+			Npy.write( read, copy );
+			final String copyHeader = new String( Files.readAllBytes( copy ), 10, 64 - 10, StandardCharsets.ISO_8859_1 );
+			assertTrue( copyHeader.contains( "'fortran_order': False, 'shape': (3, 4)" ), copyHeader );
+		}
+	}
+
+	@Test
+	public void readFortranOrder3D() throws IOException
+	{
+		// numpy array x with shape (2, 3, 4) and x[i, j, k] = 100 * i + 10 * j + k
+		final ByteBuffer data = ByteBuffer.allocate( 2 * 24 ).order( ByteOrder.nativeOrder() );
+		for ( int k = 0; k < 4; ++k )
+			for ( int j = 0; j < 3; ++j )
+				for ( int i = 0; i < 2; ++i )
+					data.putShort( ( short ) ( 100 * i + 10 * j + k ) );
+		final Path path = tempDir.resolve( "fortran3d.npy" );
+		writeNpy( path, "'fortran_order': True, 'shape': (2, 3, 4)", data );
+
+		try ( final ShmImg< UnsignedShortType > read = Npy.readImg( path ) )
+		{
+			assertArrayEquals( new long[] { 4, 3, 2 }, read.dimensionsAsLongArray() );
+			for ( int i = 0; i < 2; ++i )
+				for ( int j = 0; j < 3; ++j )
+					for ( int k = 0; k < 4; ++k )
+						assertEquals( 100 * i + 10 * j + k, read.getAt( k, j, i ).get() );
+		}
+	}
+
+	@Test
+	public void malformedShape() throws IOException
+	{
+		final Path path = tempDir.resolve( "malformed.npy" );
+		writeNpy( path, "'fortran_order': False, 'shape': (3, 99999999999)", ByteBuffer.allocate( 0 ) );
+		assertThrows( IOException.class, () -> Npy.read( path ) );
+		writeNpy( path, "'fortran_order': False, 'shape': (3, x)", ByteBuffer.allocate( 0 ) );
+		assertThrows( IOException.class, () -> Npy.read( path ) );
+	}
+
+	/**
+	 * Write a version 1.0 {@code .npy} file with {@code uint16} dtype in
+	 * native byte order, the given header {@code fields} (except {@code
+	 * descr}), and {@code data}.
+	 */
+	private static void writeNpy( final Path path, final String fields, final ByteBuffer data ) throws IOException
+	{
+		final boolean little = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+		final StringBuilder header = new StringBuilder( "{'descr': '" + ( little ? '<' : '>' ) + "u2', " + fields + ", }" );
+		while ( ( 10 + header.length() + 1 ) % 64 != 0 )
+			header.append( ' ' );
+		header.append( '\n' );
+		final ByteBuffer bytes = ByteBuffer.allocate( 10 + header.length() + data.capacity() );
+		bytes.put( new byte[] { ( byte ) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0 } );
+		bytes.put( ( byte ) header.length() );
+		bytes.put( ( byte ) ( header.length() >> 8 ) );
+		bytes.put( header.toString().getBytes( StandardCharsets.ISO_8859_1 ) );
+		bytes.put( data.array() );
+		Files.write( path, bytes.array() );
+	}
+}
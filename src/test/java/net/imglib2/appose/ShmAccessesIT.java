@@ -0,0 +1,97 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.appose;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests that the {@code MemorySegment}-based accesses from the
+ * {@code src/main/java22} overlay are picked up from the multi-release JAR
+ * on Java 22+, and that they read and write the shared memory buffer.
+ * <p>
+ * Run by the {@code maven-failsafe-plugin} in the {@code memory-segments}
+ * profile, against the packaged JAR.
+ */
+public class ShmAccessesIT
+{
+	@BeforeAll
+	public static void requireJava22()
+	{
+		final String version = System.getProperty( "java.specification.version" );
+		assumeTrue( !version.startsWith( "1." ) && Integer.parseInt( version ) >= 22,
+				"MemorySegment accesses require Java 22+" );
+	}
+
+	@Test
+	public void segmentAccessIsUsed()
+	{
+		try ( final ShmImg< FloatType > img = new ShmImg<>( new FloatType(), 4, 3 ) )
+		{
+			final String accessClass = img.getImg().update( null ).getClass().getName();
+			assertTrue( accessClass.contains( "SegmentAccess" ), accessClass );
+		}
+	}
+
+	@Test
+	public void floatValuesAreShared()
+	{
+		try ( final ShmImg< FloatType > img = new ShmImg<>( new FloatType(), 4, 3 ) )
+		{
+			img.getAt( 1, 2 ).set( 1.5f );
+			final FloatBuffer buffer = img.ndArray().buffer().order( ByteOrder.nativeOrder() ).asFloatBuffer();
+			assertEquals( 1.5f, buffer.get( 2 * 4 + 1 ) );
+
+			buffer.put( 3, -2f );
+			assertEquals( -2f, img.getAt( 3, 0 ).get() );
+		}
+	}
+
+	@Test
+	public void unsignedByteValuesAreShared()
+	{
+		try ( final ShmImg< UnsignedByteType > img = new ShmImg<>( new UnsignedByteType(), 5 ) )
+		{
+			img.getAt( 4 ).set( 200 );
+			assertEquals( ( byte ) 200, img.ndArray().buffer().get( 4 ) );
+			assertEquals( 200, img.getAt( 4 ).get() );
+		}
+	}
+}
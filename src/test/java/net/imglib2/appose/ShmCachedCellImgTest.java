@@ -0,0 +1,119 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.appose;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apposed.appose.NDArray;
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.img.basictypeaccess.IntAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.integer.IntType;
+
+/**
+ * Tests the cell {@code Loader} of {@link ShmCachedCellImg} with a fake
+ * {@code Filler}, without a worker process.
+ */
+public class ShmCachedCellImgTest
+{
+	// 3 x 2 cells: widths 4, 4, 2 and heights 4, 3
+	private static final CellGrid GRID = new CellGrid( new long[] { 10, 7 }, new int[] { 4, 4 } );
+
+	private final AtomicInteger numFills = new AtomicInteger();
+
+	private final ShmCachedCellImg.Filler filler = cells -> {
+		numFills.incrementAndGet();
+		for ( final Map< String, Object > cell : cells )
+		{
+			final IntBuffer data = ( ( NDArray ) cell.get( "data" ) ).buffer().order( ByteOrder.nativeOrder() ).asIntBuffer();
+			final int value = ( int ) ( ( Long ) cell.get( "index" ) + 1 );
+			while ( data.hasRemaining() )
+				data.put( value );
+		}
+	};
+
+	@Test
+	public void prefetchAndAccounting() throws Exception
+	{
+		final ShmCachedCellImg.Loader< IntType, ? > loader = ShmCachedCellImg.Loader.create( filler, new IntType(), GRID, 2 );
+
+		// loads cells 0, 1, 2 in one call
+		final Cell< ? > cell0 = loader.get( 0L );
+		assertEquals( 1, numFills.get() );
+		assertEquals( 2, loader.numPrefetched() );
+		assertEquals( 4 * ( 16 + 16 + 8 ), loader.allocatedBytes() );
+
+		// prefetched, no fill
+		final Cell< ? > cell1 = loader.get( 1L );
+		assertEquals( 1, numFills.get() );
+		assertEquals( 1, loader.numPrefetched() );
+
+		// loads cells 3, 4, 5, and drops (and releases) the oldest prefetched cell 2
+		final Cell< ? > cell3 = loader.get( 3L );
+		assertEquals( 2, numFills.get() );
+		assertEquals( 2, loader.numPrefetched() );
+		assertEquals( 4 * ( 16 + 16 + 12 + 12 + 6 ), loader.allocatedBytes() );
+
+		assertEquals( 1, value( cell0 ) );
+		assertEquals( 2, value( cell1 ) );
+		assertEquals( 4, value( cell3 ) );
+
+		loader.close();
+		assertEquals( 0, loader.numPrefetched() );
+		assertEquals( 0, loader.allocatedBytes() );
+	}
+
+	@Test
+	public void failedFillReleasesCells()
+	{
+		final ShmCachedCellImg.Loader< IntType, ? > loader = ShmCachedCellImg.Loader.create(
+				cells -> {
+					throw new IOException( "worker failed" );
+				},
+				new IntType(), GRID, 2 );
+		assertThrows( IOException.class, () -> loader.get( 0L ) );
+		assertEquals( 0, loader.numPrefetched() );
+		assertEquals( 0, loader.allocatedBytes() );
+	}
+
+	private static int value( final Cell< ? > cell )
+	{
+		return ( ( IntAccess ) cell.getData() ).getValue( 0 );
+	}
+}
@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.appose;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apposed.appose.NDArray;
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests {@link ShmImgLabeling}.
+ */
+public class ShmImgLabelingTest
+{
+	@Test
+	public void wrapRoundTrip()
+	{
+		final List< List< String > > labelSets = Arrays.asList(
+				Collections.emptyList(),
+				Collections.singletonList( "a" ),
+				Arrays.asList( "a", "b" ) );
+		try ( final NDArray ndArray = NDArrays.ndArray( new UnsignedShortType(), 3, 2 ) )
+		{
+			final ShmImgLabeling< String, UnsignedShortType > labeling = ShmImgLabeling.wrap( ndArray, labelSets );
+			labeling.getIndexImg().getAt( 1, 0 ).set( 1 );
+			labeling.getIndexImg().getAt( 2, 1 ).set( 2 );
+
+			assertTrue( labeling.getAt( 0, 0 ).isEmpty() );
+			assertEquals( set( "a" ), new HashSet<>( labeling.getAt( 1, 0 ) ) );
+			assertEquals( set( "a", "b" ), new HashSet<>( labeling.getAt( 2, 1 ) ) );
+
+			final List< List< String > > actual = labeling.labelSets();
+			assertEquals( labelSets.size(), actual.size() );
+			assertTrue( actual.get( 0 ).isEmpty() );
+			for ( int i = 0; i < labelSets.size(); ++i )
+				assertEquals( new HashSet<>( labelSets.get( i ) ), new HashSet<>( actual.get( i ) ) );
+		}
+	}
+
+	@Test
+	public void fromLabelImage()
+	{
+		try ( final ShmImg< IntType > labels = ShmImg.copyOf( ArrayImgs.ints( new int[] { 0, 1, 2, 2 }, 2, 2 ) ) )
+		{
+			final ShmImgLabeling< Integer, IntType > labeling = ShmImgLabeling.fromLabelImage( labels.ndArray(), 2 );
+			assertTrue( labeling.getAt( 0, 0 ).isEmpty() );
+			assertEquals( set( 1 ), new HashSet<>( labeling.getAt( 1, 0 ) ) );
+			assertEquals( set( 2 ), new HashSet<>( labeling.getAt( 0, 1 ) ) );
+			assertEquals( set( 2 ), new HashSet<>( labeling.getAt( 1, 1 ) ) );
+			assertEquals( 3, labeling.labelSets().size() );
+		}
+	}
+
+	@Test
+	public void copyOf()
+	{
+		final ImgLabeling< String, IntType > labeling = new ImgLabeling<>( ArrayImgs.ints( 3, 2 ) );
+		labeling.getAt( 0, 0 ).add( "x" );
+		labeling.getAt( 1, 1 ).add( "x" );
+		labeling.getAt( 1, 1 ).add( "y" );
+
+		try ( final ShmImgLabeling< String, IntType > copy = ShmImgLabeling.copyOf( labeling ) )
+		{
+			assertEquals( set( "x" ), new HashSet<>( copy.getAt( 0, 0 ) ) );
+			assertEquals( set( "x", "y" ), new HashSet<>( copy.getAt( 1, 1 ) ) );
+			assertTrue( copy.getAt( 2, 1 ).isEmpty() );
+			assertEquals( new HashSet<>( labeling.getMapping().getLabels() ), new HashSet<>( copy.getMapping().getLabels() ) );
+		}
+	}
+
+	@Test
+	public void rejectNonIntegerNDArray()
+	{
+		try ( final NDArray ndArray = NDArrays.ndArray( new FloatType(), 2, 2 ) )
+		{
+			assertThrows( IllegalArgumentException.class,
+					() -> ShmImgLabeling.< String, IntType >wrap( ndArray, Collections.singletonList( Collections.emptyList() ) ) );
+		}
+	}
+
+	@SafeVarargs
+	private static < T > Set< T > set( final T... elements )
+	{
+		return new HashSet<>( Arrays.asList( elements ) );
+	}
+}
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.appose;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests {@link ShmImg#snapshot()} and {@link ShmImg#copyOf} of a {@code
+ * ShmImg}, which both copy the shared memory buffer in bulk.
+ */
+public class ShmImgSnapshotTest
+{
+	@Test
+	public void snapshotIsIndependentOfSource()
+	{
+		try ( final ShmImg< FloatType > img = ramp( 7, 5 );
+				final ShmImg< FloatType > snapshot = img.snapshot() )
+		{
+			assertFalse( img.isReadOnly() );
+			assertTrue( snapshot.isReadOnly() );
+			assertNotSame( img.ndArray(), snapshot.ndArray() );
+
+			for ( final FloatType t : img )
+				t.set( -1 );
+			int i = 0;
+			for ( final FloatType t : snapshot )
+				assertEquals( i++, t.get() );
+		}
+	}
+
+	@Test
+	public void snapshotRejectsWrites()
+	{
+		try ( final ShmImg< FloatType > img = ramp( 7, 5 );
+				final ShmImg< FloatType > snapshot = img.snapshot() )
+		{
+			assertThrows( UnsupportedOperationException.class, () -> snapshot.getAt( 1, 1 ).set( 3 ) );
+			assertEquals( 8f, snapshot.getAt( 1, 1 ).get() );
+		}
+	}
+
+	@Test
+	public void copyOfShmImg()
+	{
+		try ( final ShmImg< FloatType > img = ramp( 7, 5 );
+				final ShmImg< FloatType > copy = ShmImg.copyOf( img ) )
+		{
+			assertNotSame( img.ndArray(), copy.ndArray() );
+			assertFalse( copy.isReadOnly() );
+			assertEqualPixels( img, copy );
+
+			img.getAt( 2, 3 ).set( -1 );
+			assertEquals( 23f, copy.getAt( 2, 3 ).get() );
+		}
+	}
+
+	@Test
+	public void readOnlyIsNotReusedAsOutput()
+	{
+		try ( final ShmImg< FloatType > img = ramp( 7, 5 ) )
+		{
+			final ShmImg< FloatType > snapshot = img.snapshot();
+			assertThrows( IllegalArgumentException.class, () -> NDArrays.bindOutput( new HashMap<>(), "out", snapshot ) );
+			try ( final ShmImg< FloatType > reused = img.factory().reuse( snapshot, 7, 5 ) )
+			{
+				assertNotSame( snapshot, reused );
+				assertFalse( reused.isReadOnly() );
+			}
+		}
+	}
+
+	private static ShmImg< FloatType > ramp( final int... dimensions )
+	{
+		final ShmImg< FloatType > img = new ShmImg<>( new FloatType(), dimensions );
+		int i = 0;
+		for ( final FloatType t : img )
+			t.set( i++ );
+		return img;
+	}
+
+	private static void assertEqualPixels( final RandomAccessibleInterval< FloatType > expected, final RandomAccessibleInterval< FloatType > actual )
+	{
+		final Cursor< FloatType > e = expected.cursor();
+		final Cursor< FloatType > a = actual.cursor();
+		while ( e.hasNext() )
+			assertEquals( e.next().get(), a.next().get() );
+		assertFalse( a.hasNext() );
+	}
+}
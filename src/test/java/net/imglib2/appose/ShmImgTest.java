@@ -29,9 +29,11 @@
 
 package net.imglib2.appose;
 
+import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.FloatType;
 import org.apposed.appose.Appose;
 import org.apposed.appose.Environment;
@@ -177,6 +179,75 @@ public class ShmImgTest
 		assertAccessibleFromPython( NDArrays.asNDArray( img ) );
 	}
 
+	/**
+	 * We allocate an output {@link ShmImg} on the Java side, bind it into the
+	 * task inputs, and have Python write the result into it in place. The
+	 * output is then reused for a second task.
+	 */
+	@Test
+	public void pythonWritesIntoOutput() throws Exception
+	{
+		final ShmImgFactory< FloatType > factory = new ShmImgFactory<>( new FloatType() );
+		try ( final ShmImg< FloatType > img = factory.create( 4, 3, 2 ) )
+		{
+			int i = 0;
+			for ( FloatType t : img )
+				t.set( i++ );
+
+			ShmImg< FloatType > output = null;
+			for ( int factor = 2; factor <= 3; ++factor )
+			{
+				final ShmImg< FloatType > previous = output;
+				output = factory.reuse( output, img.dimensionsAsLongArray() );
+				if ( previous != null )
+					assertSame( previous, output );
+
+				final Map< String, Object > inputs = new HashMap<>();
+				inputs.put( "data", img.ndArray() );
+				inputs.put( "factor", factor );
+				NDArrays.bindOutput( inputs, "output", output );
+
+				final String script =
+					"import numpy as np\n" +
+					"np.multiply(data.ndarray(), factor, out=output.ndarray())\n";
+				Task task = python.task( script, inputs );
+				task.waitFor();
+				assertSame( TaskStatus.COMPLETE, task.status, task.error );
+
+				i = 0;
+				for ( FloatType t : output )
+					assertEquals( factor * i++, t.get() );
+			}
+			output.close();
+		}
+	}
+
+	/**
+	 * We create a {@link ShmCachedCellImg} whose cells are filled by Python on
+	 * demand, and check that every pixel holds the index of its cell.
+	 */
+	@Test
+	public void pythonFillsCells() throws Exception
+	{
+		final String script =
+			"for cell in cells:\n" +
+			"    cell['data'].ndarray()[:] = cell['index'] + offset\n";
+		final Map< String, Object > inputs = new HashMap<>();
+		inputs.put( "offset", 1 );
+		try ( final ShmCachedCellImg< IntType, ? > img = ShmCachedCellImg.create(
+				python, script, inputs, new IntType(),
+				new long[] { 10, 7 }, new int[] { 4, 4 }, 4 * 16 * 2, 2 ) )
+		{
+			final Cursor< IntType > c = img.localizingCursor();
+			while ( c.hasNext() )
+			{
+				final int value = c.next().get();
+				final long cellIndex = c.getLongPosition( 0 ) / 4 + 3 * ( c.getLongPosition( 1 ) / 4 );
+				assertEquals( cellIndex + 1, value );
+			}
+		}
+	}
+
 	/**
 	 * Creates an {@link Img}, passes it through Appose as an NDArray, wrap it as a
 	 * ShmImg on the other end.
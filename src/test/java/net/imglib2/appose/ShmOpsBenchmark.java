@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.appose;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.parallel.Parallelization;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Compares the fused block kernels of {@link ShmOps} with the equivalent
+ * {@link LoopBuilder} loops on {@link ShmImg}s.
+ */
+@State( Scope.Benchmark )
+@Warmup( iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS )
+@Measurement( iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+public class ShmOpsBenchmark
+{
+	@Param( { "256", "1024", "4096" } )
+	public int size;
+
+	private ShmImg< FloatType > a;
+
+	private ShmImg< FloatType > b;
+
+	private ShmImg< UnsignedByteType > mask;
+
+	private ShmImg< FloatType > out;
+
+	private final ShmOps.UnaryOp scaleAndClip = ShmOps.scale( 2 ).andThen( ShmOps.clip( 0, 255 ) );
+
+	private final ShmOps.NaryOp maskedDifference = ( in, result, n ) -> {
+		for ( int i = 0; i < n; ++i )
+			result[ i ] = ( in[ 0 ][ i ] - in[ 1 ][ i ] ) * in[ 2 ][ i ];
+	};
+
+	@Setup
+	public void setup()
+	{
+		a = new ShmImg<>( new FloatType(), size, size );
+		b = new ShmImg<>( new FloatType(), size, size );
+		mask = new ShmImg<>( new UnsignedByteType(), size, size );
+		out = new ShmImg<>( new FloatType(), size, size );
+		int i = 0;
+		for ( final FloatType t : a )
+			t.set( i++ % 300 );
+		for ( final FloatType t : b )
+			t.set( i++ % 100 );
+		for ( final UnsignedByteType t : mask )
+			t.set( i++ % 2 );
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		a.close();
+		b.close();
+		mask.close();
+		out.close();
+	}
+
+	@Benchmark
+	public void unaryShmOps()
+	{
+		Parallelization.runMultiThreaded( () -> ShmOps.map( a, out, scaleAndClip ) );
+	}
+
+	@Benchmark
+	public void unaryLoopBuilder()
+	{
+		Parallelization.runMultiThreaded( () -> LoopBuilder.setImages( a, out ).multiThreaded().forEachPixel(
+				( s, t ) -> t.set( Math.min( Math.max( 2 * s.get(), 0 ), 255 ) ) ) );
+	}
+
+	@Benchmark
+	public void naryShmOps()
+	{
+		Parallelization.runMultiThreaded( () -> ShmOps.map( new WrappedNDArray[] { a, b, mask }, out, maskedDifference ) );
+	}
+
+	@Benchmark
+	public void naryLoopBuilder()
+	{
+		Parallelization.runMultiThreaded( () -> LoopBuilder.setImages( a, b, mask, out ).multiThreaded().forEachPixel(
+				( s, t, m, r ) -> r.set( ( s.get() - t.get() ) * m.get() ) ) );
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options options = new OptionsBuilder()
+				.include( ShmOpsBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( options ).run();
+	}
+}
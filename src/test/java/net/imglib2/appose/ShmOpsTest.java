@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.appose;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests {@link ShmOps}.
+ */
+public class ShmOpsTest
+{
+	@Test
+	public void fusedUnary()
+	{
+		try ( final ShmImg< FloatType > img = ShmImg.copyOf( ArrayImgs.floats( new float[] { -1, 10, 100, 1000 }, 4 ) );
+				final ShmImg< UnsignedByteType > out = new ShmImg<>( new UnsignedByteType(), 4 ) )
+		{
+			ShmOps.map( img, out, ShmOps.scale( 0.5 ).andThen( ShmOps.offset( 0.2 ) ).andThen( ShmOps.clip( 0, 300 ) ) );
+			assertEquals( 0, out.getAt( 0 ).get() );
+			assertEquals( 5, out.getAt( 1 ).get() );
+			assertEquals( 50, out.getAt( 2 ).get() );
+			assertEquals( 255, out.getAt( 3 ).get() );
+
+			ShmOps.apply( img, ShmOps.threshold( 50 ) );
+			assertEquals( 0, img.getAt( 1 ).get() );
+			assertEquals( 1, img.getAt( 2 ).get() );
+		}
+	}
+
+	@Test
+	public void binary()
+	{
+		try ( final ShmImg< FloatType > a = ShmImg.copyOf( ArrayImgs.floats( new float[] { 1, 2, 3, 4 }, 2, 2 ) );
+				final ShmImg< UnsignedByteType > b = ShmImg.copyOf( ArrayImgs.unsignedBytes( new byte[] { 10, 20, 30, 40 }, 2, 2 ) );
+				final ShmImg< UnsignedByteType > mask = new ShmImg<>( new UnsignedByteType(), 2, 2 );
+				final ShmImg< FloatType > other = new ShmImg<>( new FloatType(), 4 ) )
+		{
+			ShmOps.map( a, b, a, ShmOps.fuse( ShmOps.add(), ShmOps.scale( 2 ) ) );
+			assertEquals( 22, a.getAt( 0, 0 ).get() );
+			assertEquals( 88, a.getAt( 1, 1 ).get() );
+
+			mask.getAt( 1, 0 ).set( 1 );
+			ShmOps.map( a, mask, a, ShmOps.mask() );
+			assertEquals( 0, a.getAt( 0, 0 ).get() );
+			assertEquals( 44, a.getAt( 1, 0 ).get() );
+			assertEquals( 0, a.getAt( 1, 1 ).get() );
+
+			assertThrows( IllegalArgumentException.class, () -> ShmOps.map( a, other, ShmOps.scale( 1 ) ) );
+		}
+	}
+
+	@Test
+	public void multipleBlocks()
+	{
+		// more than one block, with a partial last block
+		final int size = 5000;
+		try ( final ShmImg< FloatType > img = new ShmImg<>( new FloatType(), size );
+				final ShmImg< UnsignedShortType > out = new ShmImg<>( new UnsignedShortType(), size ) )
+		{
+			int i = 0;
+			for ( final FloatType t : img )
+				t.set( i++ );
+			ShmOps.map( img, out, ShmOps.offset( 1 ) );
+			ShmOps.apply( out, x -> x * 2 );
+			i = 0;
+			for ( final UnsignedShortType t : out )
+				assertEquals( 2 * ( i++ + 1 ), t.get() );
+		}
+	}
+
+	@Test
+	public void rejectReadOnlyTarget()
+	{
+		try ( final ShmImg< FloatType > img = new ShmImg<>( new FloatType(), 4 );
+				final ShmImg< FloatType > snapshot = img.snapshot() )
+		{
+			assertThrows( IllegalArgumentException.class, () -> ShmOps.apply( snapshot, ShmOps.scale( 2 ) ) );
+			assertThrows( IllegalArgumentException.class, () -> ShmOps.map( img, img, snapshot, ShmOps.add() ) );
+			// reading from a snapshot is fine
+			ShmOps.map( snapshot, img, ShmOps.offset( 1 ) );
+			assertEquals( 1, img.getAt( 3 ).get() );
+		}
+	}
+
+	@Test
+	public void int64()
+	{
+		try ( final ShmImg< LongType > longs = new ShmImg<>( new LongType(), 4 );
+				final ShmImg< FloatType > floats = new ShmImg<>( new FloatType(), 4 ) )
+		{
+			longs.getAt( 1 ).set( -3 );
+			longs.getAt( 2 ).set( 1L << 40 );
+			ShmOps.apply( longs, ShmOps.scale( 2 ) );
+			assertEquals( -6, longs.getAt( 1 ).get() );
+			assertEquals( 1L << 41, longs.getAt( 2 ).get() );
+
+			ShmOps.map( longs, floats, ShmOps.offset( 1 ) );
+			assertEquals( -5f, floats.getAt( 1 ).get() );
+		}
+	}
+
+	@Test
+	public void nary()
+	{
+		try ( final ShmImg< FloatType > a = ShmImg.copyOf( ArrayImgs.floats( new float[] { 5, 6, 7, 8 }, 4 ) );
+				final ShmImg< FloatType > b = ShmImg.copyOf( ArrayImgs.floats( new float[] { 1, 2, 3, 4 }, 4 ) );
+				final ShmImg< UnsignedByteType > mask = ShmImg.copyOf( ArrayImgs.unsignedBytes( new byte[] { 1, 0, 1, 0 }, 4 ) );
+				final ShmImg< FloatType > out = new ShmImg<>( new FloatType(), 4 ) )
+		{
+			final ShmOps.NaryOp maskedDifference = ( in, result, n ) -> {
+				for ( int i = 0; i < n; ++i )
+					result[ i ] = ( in[ 0 ][ i ] - in[ 1 ][ i ] ) * in[ 2 ][ i ];
+			};
+			ShmOps.map( new WrappedNDArray[] { a, b, mask }, out, maskedDifference.andThen( ShmOps.offset( 0.5 ) ) );
+			assertEquals( 4.5f, out.getAt( 0 ).get() );
+			assertEquals( 0.5f, out.getAt( 1 ).get() );
+			assertEquals( 4.5f, out.getAt( 2 ).get() );
+			assertEquals( 0.5f, out.getAt( 3 ).get() );
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2024 - 2025 Tobias Pietzsch and Curtis Rueden.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.appose;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.imglib2.type.numeric.integer.IntType;
+
+/**
+ * Tests spilling and restoring {@link ShmImg}s with {@link ShmTiering}.
+ */
+public class ShmTieringTest
+{
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void spillAndRestore()
+	{
+		final int bytes = 4 * 100 * 50;
+		// budget for one image, small blocks to exercise multiple blocks
+		try ( final ShmTiering tiering = new ShmTiering( tempDir, bytes, 1000, Deflater.BEST_SPEED ) )
+		{
+			final ShmTiering.Entry< IntType > a = tiering.register( image( 1 ) );
+			final ShmTiering.Entry< IntType > b = tiering.register( image( 2 ) );
+			assertFalse( a.isResident() );
+			assertTrue( b.isResident() );
+			assertEquals( bytes, tiering.residentBytes() );
+
+			try ( final ShmTiering.Lease< IntType > lease = a.acquire() )
+			{
+				assertValues( 1, lease.get() );
+			}
+			assertTrue( a.isResident() );
+			assertFalse( b.isResident() );
+
+			final ShmTiering.Lease< IntType > leaseB = b.acquire();
+			tiering.evictIdle( 0, TimeUnit.NANOSECONDS );
+			assertFalse( a.isResident() );
+			assertTrue( b.isResident() );
+
+			// restoring a cannot spill the leased b, so both are resident
+			try ( final ShmTiering.Lease< IntType > leaseA = a.acquire() )
+			{
+				assertTrue( b.isResident() );
+				assertValues( 1, leaseA.get() );
+				assertValues( 2, leaseB.get() );
+				assertEquals( 2 * bytes, tiering.residentBytes() );
+			}
+			leaseB.close();
+			assertThrows( IllegalStateException.class, leaseB::ndArray );
+
+			tiering.evictIdle( 0, TimeUnit.NANOSECONDS );
+			assertEquals( 0, tiering.residentBytes() );
+		}
+	}
+
+	@Test
+	public void concurrentAccess() throws Exception
+	{
+		final int bytes = 4 * 100 * 50;
+		// budget for two of four images, so that threads spill each other's entries
+		try ( final ShmTiering tiering = new ShmTiering( tempDir, 2 * bytes, 1000, Deflater.BEST_SPEED ) )
+		{
+			final List< ShmTiering.Entry< IntType > > entries = new ArrayList<>();
+			for ( int i = 0; i < 4; ++i )
+				entries.add( tiering.register( image( i + 1 ) ) );
+
+			final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+			try
+			{
+				final List< Future< ? > > futures = new ArrayList<>();
+				for ( int t = 0; t < 4; ++t )
+				{
+					final int seed = t + 1;
+					final ShmTiering.Entry< IntType > entry = entries.get( t );
+					futures.add( executor.submit( () -> {
+						for ( int i = 0; i < 20; ++i )
+						{
+							try ( final ShmTiering.Lease< IntType > lease = entry.acquire() )
+							{
+								assertValues( seed, lease.get() );
+							}
+							if ( i % 5 == 0 )
+								tiering.evictIdle( 0, TimeUnit.NANOSECONDS );
+						}
+					} ) );
+				}
+				for ( final Future< ? > future : futures )
+					future.get();
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+	}
+
+	private static ShmImg< IntType > image( final int seed )
+	{
+		final ShmImg< IntType > img = new ShmImg<>( new IntType(), 100, 50 );
+		int i = 0;
+		for ( final IntType t : img )
+			t.set( seed * ( i++ % 7 ) );
+		return img;
+	}
+
+	private static void assertValues( final int seed, final ShmImg< IntType > img )
+	{
+		int i = 0;
+		for ( final IntType t : img )
+			assertEquals( seed * ( i++ % 7 ), t.get() );
+	}
+}